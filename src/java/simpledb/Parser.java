@@ -361,13 +361,13 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
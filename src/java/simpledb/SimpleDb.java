@@ -15,7 +15,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -24,6 +24,7 @@ public class SimpleDb {
                     int numOfAttributes = Integer.parseInt(args[2]);
                     Type[] ts = new Type[numOfAttributes];
                     char fieldSeparator = ',';
+                    String format = "";
 
                     if (args.length == 3)
                         for (int i = 0; i < numOfAttributes; i++)
@@ -41,17 +42,34 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varstring"))
+                                ts[index++] = Type.VARSTRING_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
+                        // a trailing "slotted" or "pax" writes pages for a table with that option
+                        if (args.length == 6) {
+                            format = args[5].toLowerCase();
+                            if (!format.equals("slotted") && !format.equals("pax")) {
+                                System.err.println("Unknown format " + args[5]);
+                                return;
+                            }
+                        }
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (format.equals("slotted"))
+                        HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else if (format.equals("pax"))
+                        HeapFileEncoder.convertPax(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -75,6 +93,24 @@ public class SimpleDb {
                     it.close();
                 }
                 break;
+            case "compress":
+                // compress <table .dat> <columns> <output .dat> [compressed]: rewrite a heap
+                // file, or a compressed one to drop the old versions of its pages, compressed
+                try {
+                    if (args.length < 4 || args.length > 5) {
+                        System.err.println("Unexpected number of arguments to compress ");
+                        return;
+                    }
+                    File inFile = new File(args[1]);
+                    TupleDesc td = Utility.getTupleDesc(Integer.parseInt(args[2]));
+                    HeapFile in = args.length == 5 && args[4].equalsIgnoreCase("compressed")
+                            ? new CompressedHeapFile(inFile, td) : new HeapFile(inFile, td);
+                    HeapFileEncoder.compress(in, new File(args[3]));
+                    in.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "parser":
                 // Strip the first argument and call the parser
                 String[] newargs = new String[args.length - 1];
@@ -1,8 +1,11 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -72,7 +75,7 @@ public class Catalog {
         if(replace==-1)
             tables.add(new Table(file,name,pkeyField));
         else
-            tables.set(replace,new Table(file,name,pkeyField));
+            close(tables.set(replace,new Table(file,name,pkeyField)).file,file);
         // some code goes here
     }
 
@@ -161,8 +164,21 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for(Table table:tables)
+            close(table.file,null);
         tables.clear();
     }
+
+    //Release the file handles of a table that was dropped, unless its DbFile is still in use
+    private void close(DbFile dropped,DbFile kept){
+        if(dropped==kept)
+            return;
+        try {
+            dropped.close();
+        }catch (IOException e){
+            e.printStackTrace();
+        }
+    }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
@@ -175,7 +191,10 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted|compressed|pax]
+                //where slotted stores it in slotted pages of variable-length records,
+                //compressed stores its pages compressed, and pax stores each
+                //column of a page in its own minipage
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -190,6 +209,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varstring"))
+                        types.add(Type.VARSTRING_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -203,10 +224,22 @@ public class Catalog {
                         }
                     }
                 }
+                String option = line.substring(line.indexOf(")") + 1).trim();
+                boolean slotted = option.equalsIgnoreCase("slotted");
+                boolean compressed = option.equalsIgnoreCase("compressed");
+                boolean pax = option.equalsIgnoreCase("pax");
+                if (!slotted && !compressed && !pax && !option.isEmpty()) {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = slotted ? new SlottedHeapFile(tabFile, t)
+                        : compressed ? new CompressedHeapFile(tabFile, t)
+                        : pax ? new PaxFile(tabFile, t)
+                        : new HeapFile(tabFile, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.EvictionPolicy;
 import simpledb.storage.LogFile;
 import simpledb.transaction.LockManager;
 
@@ -62,14 +63,30 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it. Locks held in the old buffer pool are dropped.
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts pages with the given policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
+            // the locks guarded the pages of the old pool, forget them too
+            java.lang.reflect.Field lockManagerF = Database.class.getDeclaredField("_lockmanager");
+            lockManagerF.setAccessible(true);
+            lockManagerF.set(_instance.get(), new LockManager());
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -79,6 +96,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        // close the files of the old catalog's tables
+        _instance.get()._catalog.clear();
         _instance.set(new Database());
     }
 
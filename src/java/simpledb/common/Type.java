@@ -28,6 +28,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +51,34 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.max(0, Math.min(STRING_LEN, readInt(data, offset)));
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+    }, VARSTRING_TYPE() {
+        // a string stored with its real length by formats with variable-length
+        // records (see SlottedPage); fixed-size formats store it like STRING_TYPE
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + Math.min(STRING_LEN, ((StringField) f).getValue().length());
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return new StringField(((StringField) STRING_TYPE.parse(dis)).getValue(), STRING_LEN, this);
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new StringField(((StringField) STRING_TYPE.parse(data, offset)).getValue(), STRING_LEN, this);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +88,14 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes f takes in a variable-length record, at most
+   *   getLen(). Only VARSTRING_TYPE fields are shorter than getLen().
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +105,16 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded from its
+   *   serialized form at offset in data, without copying the data first.
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+    // reads a big-endian int, as DataInputStream.readInt does
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -0,0 +1,136 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The tuples of a child in ascending order of one field, for operators that
+ * need sorted input. A child that doesn't fit in memory is sorted a memory
+ * budget at a time into runs, written to temporary files, that are then
+ * merged. A child already in order is passed through.
+ */
+class ExternalSort {
+
+    private final OpIterator child;
+    private final int memoryTuples;
+    private final boolean sorted;
+    private final Comparator<Tuple> order;
+
+    //the child, when it fits in memory, else the runs and the merge of them
+    private final List<Tuple> tuples = new ArrayList<>();
+    private int pos;
+    private final List<SpillFile> runs = new ArrayList<>();
+    private PriorityQueue<Head> merge;
+
+    //the next tuple of a run
+    private static class Head {
+        final Tuple t;
+        final SpillFile.Reader run;
+        final int runNo;
+        Head(Tuple t, SpillFile.Reader run, int runNo) {
+            this.t = t;
+            this.run = run;
+            this.runNo = runNo;
+        }
+    }
+
+    /**
+     * @param sorted
+     *            whether the tuples of child already come in order of field
+     */
+    ExternalSort(OpIterator child, int field, int memoryTuples, boolean sorted) {
+        this.child = child;
+        this.memoryTuples = memoryTuples;
+        this.sorted = sorted;
+        this.order = new TupleComparator(field, true);
+    }
+
+    /** Opens the child, and reads and sorts it unless it is in order already */
+    void open() throws DbException, TransactionAbortedException {
+        child.open();
+        if (sorted)
+            return;
+        while (child.hasNext()) {
+            if (tuples.size() == memoryTuples)
+                writeRun();
+            tuples.add(child.next());
+        }
+        if (runs.isEmpty()) {
+            tuples.sort(order);
+        } else {
+            writeRun();
+            startMerge();
+        }
+        pos = 0;
+    }
+
+    private void writeRun() throws DbException {
+        tuples.sort(order);
+        SpillFile run = new SpillFile(child.getTupleDesc());
+        for (Tuple t : tuples)
+            run.add(t);
+        runs.add(run);
+        tuples.clear();
+    }
+
+    private void startMerge() throws DbException {
+        // ties go to the earlier run, so tuples of equal fields keep the child's order
+        merge = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+            int c = order.compare(a.t, b.t);
+            return c != 0 ? c : Integer.compare(a.runNo, b.runNo);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            SpillFile.Reader r = runs.get(i).reader();
+            Tuple t = r.next();
+            if (t != null)
+                merge.add(new Head(t, r, i));
+        }
+    }
+
+    /** @return the next tuple in order, or null after the last one */
+    Tuple next() throws DbException, TransactionAbortedException {
+        if (sorted)
+            return child.hasNext() ? child.next() : null;
+        if (merge == null)
+            return pos < tuples.size() ? tuples.get(pos++) : null;
+        Head h = merge.poll();
+        if (h == null)
+            return null;
+        Tuple t = h.run.next();
+        if (t != null)
+            merge.add(new Head(t, h.run, h.runNo));
+        return h.t;
+    }
+
+    /** Starts over from the first tuple */
+    void rewind() throws DbException, TransactionAbortedException {
+        if (sorted) {
+            child.rewind();
+        } else if (merge == null) {
+            pos = 0;
+        } else {
+            closeMerge();
+            startMerge();
+        }
+    }
+
+    private void closeMerge() {
+        for (Head h : merge)
+            h.run.close();
+        merge = null;
+    }
+
+    /** Closes the child and deletes the runs */
+    void close() {
+        if (merge != null)
+            closeMerge();
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        tuples.clear();
+        child.close();
+    }
+}
@@ -10,6 +10,15 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The tuples of child1 are put in a hash table and those of child2 probe it.
+ * If child1 has more tuples than fit in the memory budget, both children are
+ * split into partitions by the hash of their join field, which are written to
+ * temporary files, and then each partition of child1 is put in the hash table
+ * in turn and probed with the matching partition of child2 (a Grace hash
+ * join). That reads each input about twice, instead of rescanning child2 for
+ * every table full of child1. A partition still too large is split again, or
+ * joined a table full at a time if it is mostly one key.
  */
 public class HashEquiJoin extends Operator {
 
@@ -19,6 +28,7 @@ public class HashEquiJoin extends Operator {
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    private final int memoryTuples;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -32,9 +42,20 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join that holds at most memoryTuples tuples of child1
+     * in memory at a time.
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+        this.table = JoinTable.create(child1.getTupleDesc().getFieldType(p.getField1()),
+                child2.getTupleDesc().getFieldType(p.getField2()));
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -56,28 +77,182 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    //the tuples of child1, or of its current partition, by join field
+    private final JoinTable table;
+    /** Default number of tuples of child1 held in memory */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions the children are first split into */
+    static final int FAN_OUT = 16;
+    //Partitions are split again at most this many times, more won't help
+    //partitions that are mostly one key
+    private static final int MAX_DEPTH = 3;
+
+    //A partition of each child, holding the tuples whose join fields hash alike
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int depth;
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    //whether the children were split into partitions, else table holds all of child1
+    private boolean spilled = false;
+    private final Deque<Partition> partitions = new ArrayDeque<>();
+    //the partition being joined, its tuples of child2, and of child1 if it is
+    //joined a table full at a time
+    private Partition current = null;
+    private SpillFile.Reader probe = null;
+    private SpillFile.Reader buildChunks = null;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException{
+    //Reads child1 into the hash table, or splits both children if it doesn't fit
+    private void build() throws DbException, TransactionAbortedException {
+        table.clear();
         int cnt = 0;
-        map.clear();
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            if (cnt == memoryTuples) {
+                spill(t1);
+                return;
+            }
+            table.add(t1.getField(pred.getField1()), t1);
+            cnt++;
+        }
+    }
+
+    //Splits the tuples in the hash table, t and the rest of both children into partitions
+    private void spill(Tuple t) throws DbException, TransactionAbortedException {
+        spilled = true;
+        SpillFile[] build = newPartitions(child1.getTupleDesc(), FAN_OUT);
+        SpillFile[] probe = newPartitions(child2.getTupleDesc(), FAN_OUT);
+        for (Iterator<Tuple> it = table.tuples(); it.hasNext(); ) {
+            Tuple tuple = it.next();
+            build[partition(tuple.getField(pred.getField1()), 0, FAN_OUT)].add(tuple);
+        }
+        table.clear();
+        for (; t != null; t = child1.hasNext() ? child1.next() : null)
+            build[partition(t.getField(pred.getField1()), 0, FAN_OUT)].add(t);
+        while (child2.hasNext()) {
+            t = child2.next();
+            probe[partition(t.getField(pred.getField2()), 0, FAN_OUT)].add(t);
+        }
+        addPartitions(build, probe, 0);
+    }
+
+    //Splits a partition that doesn't fit in memory into enough smaller ones that should
+    private void split(Partition part) throws DbException {
+        int n = Math.max(2, 2 * ((part.build.size() + memoryTuples - 1) / memoryTuples));
+        SpillFile[] build = newPartitions(child1.getTupleDesc(), n);
+        SpillFile[] probe = newPartitions(child2.getTupleDesc(), n);
+        SpillFile.Reader r = part.build.reader();
+        for (Tuple t = r.next(); t != null; t = r.next())
+            build[partition(t.getField(pred.getField1()), part.depth + 1, n)].add(t);
+        r = part.probe.reader();
+        for (Tuple t = r.next(); t != null; t = r.next())
+            probe[partition(t.getField(pred.getField2()), part.depth + 1, n)].add(t);
+        part.delete();
+        addPartitions(build, probe, part.depth + 1);
+    }
+
+    private SpillFile[] newPartitions(TupleDesc td, int n) throws DbException {
+        SpillFile[] files = new SpillFile[n];
+        for (int i = 0; i < n; i++)
+            files[i] = new SpillFile(td);
+        return files;
+    }
+
+    //Queues the pairs of partitions that may join, partitions empty on either side don't
+    private void addPartitions(SpillFile[] build, SpillFile[] probe, int depth) {
+        for (int i = 0; i < build.length; i++) {
+            Partition part = new Partition(build[i], probe[i], depth);
+            if (build[i].size() > 0 && probe[i].size() > 0)
+                partitions.add(part);
+            else
+                part.delete();
+        }
+    }
+
+    //The partition of n a join field goes to; each depth splits with a different hash
+    private static int partition(Object key, int depth, int n) {
+        int h = (key.hashCode() ^ (depth * 0x9E3779B9)) * 0x85EBCA6B;
+        return Math.floorMod(h ^ (h >>> 16), n);
+    }
+
+    /**
+     * Moves on to the next partitions to join once the tuples of child2 are
+     * used up: puts the next partition of child1, or the next table full of
+     * it, in the hash table.
+     * @return false if there is nothing left to join
+     */
+    private boolean nextPartition() throws DbException {
+        table.clear();
+        if (!spilled)
+            return false;
+        if (buildChunks != null && loadChunk()) {
+            probe = current.probe.reader();
+            return true;
+        }
+        buildChunks = null;
+        if (current != null)
+            current.delete();
+        current = null;
+        while (!partitions.isEmpty()) {
+            Partition part = partitions.poll();
+            if (part.build.size() > memoryTuples && part.depth < MAX_DEPTH) {
+                split(part);
+                continue;
+            }
+            current = part;
+            // a partition still too large is joined a table full at a time
+            buildChunks = part.build.reader();
+            loadChunk();
+            probe = part.probe.reader();
+            return true;
         }
+        return false;
+    }
+
+    //Puts up to memoryTuples more tuples of the current partition in the hash table
+    private boolean loadChunk() throws DbException {
+        int cnt = 0;
+        for (Tuple t; cnt < memoryTuples && (t = buildChunks.next()) != null; cnt++)
+            table.add(t.getField(pred.getField1()), t);
         return cnt > 0;
+    }
 
+    //Deletes the partitions, so the join can start over
+    private void reset() {
+        if (probe != null)
+            probe.close();
+        if (buildChunks != null)
+            buildChunks.close();
+        if (current != null)
+            current.delete();
+        for (Partition part : partitions)
+            part.delete();
+        partitions.clear();
+        current = null;
+        probe = null;
+        buildChunks = null;
+        spilled = false;
+        t1 = null;
+        t2 = null;
+        listIt = null;
+        table.clear();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException{
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -85,15 +260,14 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -137,30 +311,30 @@ public class HashEquiJoin extends Operator {
             return processList();
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
+        // loop around child2, or the tuples of its current partition
+        do {
+            Tuple t;
+            while ((t = nextProbe()) != null) {
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                Iterator<Tuple> matches = table.get(t.getField(pred.getField2()));
+                if (matches == null)
+                    continue;
+                t2 = t;
+                listIt = matches;
+                return processList();
+            }
+        } while (nextPartition());
 
         return null;
     }
 
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (!spilled)
+            return child2.hasNext() ? child2.next() : null;
+        return probe == null ? null : probe.next();
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
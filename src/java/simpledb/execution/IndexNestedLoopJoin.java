@@ -0,0 +1,167 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * A join whose child2 is a scan of a table with a BTreeFile on the join
+ * field, possibly under Filters. Instead of scanning child2, it looks up the
+ * tuples matching each tuple of child1 in the index, so each tuple of child1
+ * costs a few pages rather than a scan of the table.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    //the scan child2 is made of, and the predicates of the Filters over it
+    private SeqScan scan;
+    private final List<Predicate> filters = new ArrayList<>();
+
+    transient private Tuple t1 = null;
+    transient private DbFileIterator matches = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on; child2 must be one that {@link #canProbe} the join field of.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canProbe(child2, p.getField2(), p.getOperator()))
+            throw new IllegalArgumentException("child2 has no index to find " + p.getOperator() + " matches of field " + p.getField2());
+        this.pred = p;
+        setChildren(new OpIterator[]{child1, child2});
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether child2 is a scan, possibly under Filters, of a table
+     *         with a BTreeFile on field, that can find the tuples for which
+     *         {@code value op field} holds
+     */
+    public static boolean canProbe(OpIterator child2, int field, Predicate.Op op) {
+        if (indexOp(op) == null)
+            return false;
+        while (child2 instanceof Filter)
+            child2 = ((Filter) child2).getChildren()[0];
+        return child2 instanceof SeqScan && ((SeqScan) child2).isIndexedOn(field);
+    }
+
+    //The operator of the index predicate that finds the tuples t2 of
+    //"t1 op t2": the same comparison with the operands swapped
+    private static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // child2 is only read through its index
+        child1.open();
+        super.open();
+    }
+
+    private void closeMatches() {
+        if (matches != null)
+            matches.close();
+        matches = null;
+        t1 = null;
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of a tuple of child1 and one of child2
+     * that satisfies the join predicate, in the order of child1.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple t2 = matches.next();
+                if (passes(t2))
+                    return Tuple.concat(t1, t2);
+            }
+            closeMatches();
+            if (!child1.hasNext())
+                return null;
+            t1 = child1.next();
+            matches = scan.indexIterator(new IndexPredicate(indexOp(pred.getOperator()), t1.getField(pred.getField1())));
+            matches.open();
+        }
+    }
+
+    private boolean passes(Tuple t2) {
+        for (Predicate f : filters)
+            if (!f.filter(t2))
+                return false;
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        filters.clear();
+        OpIterator it = child2;
+        while (it instanceof Filter) {
+            filters.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        scan = (SeqScan) it;
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A JoinTable for INT_TYPE join fields, that doesn't box keys or keep a list
+ * per key.
+ * <p>
+ * An open-addressing table, probed linearly, holds each int key with the
+ * range of its tuples in one array of all the tuples. While tuples are added
+ * they are kept in the order they came, chained to the next one of the same
+ * key; the first lookup after that sorts them by key so the tuples of a key
+ * are next to each other.
+ */
+class IntJoinTable implements JoinTable {
+    private static final int NONE = -1;
+    private static final int INITIAL_SLOTS = 64;
+
+    //each slot is a key, and the first and last tuple of the key: while
+    //adding, the ends of its chain, once sorted, the range of its tuples
+    private static final int KEY = 0, FIRST = 1, LAST = 2, SLOT_INTS = 3;
+    private int[] slots;
+    private int mask;
+    private int numKeys;
+
+    private Tuple[] rows;
+    //while adding, the index of the next tuple of the same key
+    private int[] next;
+    private int numRows;
+    private boolean sorted = true;
+
+    private final Rows it = new Rows();
+
+    IntJoinTable() {
+        allocate(INITIAL_SLOTS);
+        rows = new Tuple[INITIAL_SLOTS];
+        next = new int[INITIAL_SLOTS];
+    }
+
+    private void allocate(int numSlots) {
+        slots = new int[numSlots * SLOT_INTS];
+        for (int i = FIRST; i < slots.length; i += SLOT_INTS)
+            slots[i] = NONE;
+        mask = numSlots - 1;
+    }
+
+    //the offset of the slot of key, or of the empty slot it would go in;
+    //Fibonacci hashing, so keys that are close don't fill runs of slots
+    private int find(int key) {
+        int h = key * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (slots[i * SLOT_INTS + FIRST] != NONE && slots[i * SLOT_INTS] != key)
+            i = (i + 1) & mask;
+        return i * SLOT_INTS;
+    }
+
+    public void add(Field key, Tuple t) {
+        if (sorted && numRows > 0)
+            throw new IllegalStateException("can't add to a join table once it was probed");
+        sorted = false;
+        if (numRows == rows.length) {
+            rows = Arrays.copyOf(rows, numRows * 2);
+            next = Arrays.copyOf(next, numRows * 2);
+        }
+        int row = numRows++;
+        rows[row] = t;
+        next[row] = NONE;
+
+        int k = ((IntField) key).getValue();
+        int s = find(k);
+        if (slots[s + FIRST] == NONE) {
+            slots[s + KEY] = k;
+            slots[s + FIRST] = row;
+            slots[s + LAST] = row;
+            // keep the table at most half full, so probes stay short
+            if (++numKeys * 2 > slots.length / SLOT_INTS)
+                grow();
+        } else {
+            next[slots[s + LAST]] = row;
+            slots[s + LAST] = row;
+        }
+    }
+
+    private void grow() {
+        int[] old = slots;
+        allocate(old.length / SLOT_INTS * 2);
+        for (int j = 0; j < old.length; j += SLOT_INTS) {
+            if (old[j + FIRST] == NONE)
+                continue;
+            int s = find(old[j + KEY]);
+            System.arraycopy(old, j, slots, s, SLOT_INTS);
+        }
+    }
+
+    //Lays out the tuples of each key next to each other, in the order they were added
+    private void sort() {
+        Tuple[] byKey = new Tuple[rows.length];
+        int end = 0;
+        for (int s = 0; s < slots.length; s += SLOT_INTS) {
+            if (slots[s + FIRST] == NONE)
+                continue;
+            int start = end;
+            for (int row = slots[s + FIRST]; row != NONE; row = next[row])
+                byKey[end++] = rows[row];
+            slots[s + FIRST] = start;
+            slots[s + LAST] = end;
+        }
+        rows = byKey;
+        sorted = true;
+    }
+
+    public Iterator<Tuple> get(Field key) {
+        if (!sorted)
+            sort();
+        int s = find(((IntField) key).getValue());
+        if (slots[s + FIRST] == NONE)
+            return null;
+        it.row = slots[s + FIRST];
+        it.end = slots[s + LAST];
+        return it;
+    }
+
+    public Iterator<Tuple> tuples() {
+        return Arrays.asList(rows).subList(0, numRows).iterator();
+    }
+
+    public void clear() {
+        for (int i = FIRST; i < slots.length; i += SLOT_INTS)
+            slots[i] = NONE;
+        Arrays.fill(rows, 0, numRows, null);
+        numKeys = 0;
+        numRows = 0;
+        sorted = true;
+    }
+
+    //the tuples of one key
+    private class Rows implements Iterator<Tuple> {
+        int row, end;
+
+        public boolean hasNext() {
+            return row < end;
+        }
+
+        public Tuple next() {
+            if (row >= end)
+                throw new NoSuchElementException();
+            return rows[row++];
+        }
+    }
+}
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -10,6 +11,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a nested loops join. Without a block size it rescans child2 for every
+ * tuple of child1; with one, it reads child1 a block of pages at a time and
+ * rescans child2 once per block, testing each tuple of child2 against the
+ * whole block (a block nested loops join).
  */
 public class Join extends Operator {
 
@@ -17,8 +23,16 @@ public class Join extends Operator {
     private final JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
-    private Tuple tp1=null;
-    private Tuple tp2=null;
+    private final int blockTuples;
+    //the tuples of child1 being joined, the tuple of child2 they are tested
+    //against, and the next tuple of the block to test
+    transient private final List<Tuple> block = new ArrayList<>();
+    transient private Tuple tp2=null;
+    transient private int blockPos=0;
+
+    /** Default number of pages of child1 a block nested loops join holds */
+    public static final int DEFAULT_BLOCK_PAGES = 10;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -31,10 +45,29 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    /**
+     * Constructor for a block nested loops join, that rescans child2 once for
+     * every blockPages pages worth of tuples of child1, or once per tuple of
+     * child1 if blockPages is 0.
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
         // some code goes here
         this.p=p;
         this.child1=child1;
         this.child2=child2;
+        this.blockTuples=blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /**
+     * @return the number of tuples of td that fit in pages HeapPages, at
+     *         least 1
+     */
+    public static int blockTuples(TupleDesc td, int pages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, pages * perPage);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -86,12 +119,16 @@ public class Join extends Operator {
         super.close();
         child2.close();
         child1.close();
+        block.clear();
+        tp2=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        block.clear();
+        tp2=null;
     }
 
     /**
@@ -113,19 +150,30 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        while(child1.hasNext()||tp1!=null){
-            if(tp1==null)
-                tp1 = child1.next();
-            while(child2.hasNext()){
-                tp2 = child2.next();
-                if(p.filter(tp1,tp2)){
-                    return Tuple.concat(tp1,tp2);
+        while(true){
+            if(block.isEmpty()){
+                while(block.size()<blockTuples&&child1.hasNext())
+                    block.add(child1.next());
+                if(block.isEmpty())
+                    return null;
+            }
+            while(true){
+                if(tp2!=null){
+                    while(blockPos<block.size()){
+                        Tuple tp1=block.get(blockPos++);
+                        if(p.filter(tp1,tp2))
+                            return Tuple.concat(tp1,tp2);
+                    }
                 }
+                if(!child2.hasNext())
+                    break;
+                tp2=child2.next();
+                blockPos=0;
             }
-            tp1=null;
+            block.clear();
+            tp2=null;
             child2.rewind();
         }
-        return null;
     }
 
     @Override
@@ -0,0 +1,59 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+
+import java.util.*;
+
+/**
+ * The build side of a hash join: tuples found by the value of their join
+ * field.
+ */
+interface JoinTable {
+
+    /** Adds t, whose join field is key */
+    void add(Field key, Tuple t);
+
+    /**
+     * @return the tuples added with a key equal to key, in the order they
+     *         were added, or null if there are none. The iterator may be
+     *         reused by the next call.
+     */
+    Iterator<Tuple> get(Field key);
+
+    /** @return all the tuples added */
+    Iterator<Tuple> tuples();
+
+    /** Removes all the tuples */
+    void clear();
+
+    /** @return a table for joins of fields of type1 with fields of type2 */
+    static JoinTable create(Type type1, Type type2) {
+        if (type1 == Type.INT_TYPE && type2 == Type.INT_TYPE)
+            return new IntJoinTable();
+        return new MapJoinTable();
+    }
+
+    /** A JoinTable for keys of any type, a HashMap from the key to its tuples */
+    class MapJoinTable implements JoinTable {
+        private final Map<Object, List<Tuple>> map = new HashMap<>();
+
+        public void add(Field key, Tuple t) {
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+        }
+
+        public Iterator<Tuple> get(Field key) {
+            List<Tuple> l = map.get(key);
+            return l == null ? null : l.iterator();
+        }
+
+        public Iterator<Tuple> tuples() {
+            return map.values().stream().flatMap(List::stream).iterator();
+        }
+
+        public void clear() {
+            map.clear();
+        }
+    }
+}
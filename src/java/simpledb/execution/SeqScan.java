@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -23,6 +24,8 @@ public class SeqScan implements OpIterator {
     private String              tableAlias;
     private DbFile              tablefile;
     private DbFileIterator      fileIterator;
+    //the columns of the table this scan returns, null for all of them
+    private final int[]         columns;
     private Boolean             open=false;
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -42,11 +45,26 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some columns of the
+     * specified table, so that fields the query doesn't use aren't read.
+     *
+     * @param columns
+     *            the indexes of the fields to return, in the order they are
+     *            returned, or null for all of them
+     * @see DbFile#iterator(TransactionId, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.tid        = tid;
         this.tableid    = tableid;
         this.tableAlias = tableAlias;
+        this.columns    = columns;
         this.tablefile = Database.getCatalog().getDatabaseFile(this.tableid);
-        this.fileIterator = this.tablefile.iterator(this.tid);
+        this.fileIterator = columns == null ? this.tablefile.iterator(this.tid)
+                : this.tablefile.iterator(this.tid, columns);
     }
 
     /**
@@ -85,6 +103,38 @@ public class SeqScan implements OpIterator {
         this.tableAlias=tableAlias;
     }
 
+    /**
+     * @return whether the tuples come in ascending order of field, which they
+     *         do for the key field of a BTreeFile
+     */
+    public boolean isSortedOn(int field) {
+        return isIndexedOn(field);
+    }
+
+    /**
+     * @return whether the table is a BTreeFile keyed on field, so that
+     *         {@link #indexIterator} can find tuples by it
+     */
+    public boolean isIndexedOn(int field) {
+        if (!(this.tablefile instanceof BTreeFile))
+            return false;
+        int column = this.columns == null ? field : this.columns[field];
+        return column == ((BTreeFile) this.tablefile).keyField();
+    }
+
+    /**
+     * Returns the tuples of the table whose key field matches ipred, found
+     * through its BTreeFile, with the fields this scan returns.
+     *
+     * @see #isIndexedOn
+     */
+    public DbFileIterator indexIterator(IndexPredicate ipred) {
+        DbFileIterator it = ((BTreeFile) this.tablefile).indexIterator(this.tid, ipred);
+        if (this.columns == null)
+            return it;
+        return DbFile.project(it, this.tablefile.getTupleDesc().project(this.columns), this.columns);
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -108,6 +158,8 @@ public class SeqScan implements OpIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc origin=Database.getCatalog().getTupleDesc(this.tableid);
+        if(this.columns!=null)
+            origin=origin.project(this.columns);
         return origin.SetPrefix(this.tableAlias);
     }
 
@@ -0,0 +1,193 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.index.BTreeScan;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * A join on equality of two fields that reads both children in order of
+ * their join fields and merges them. Children that don't come in order are
+ * sorted first, externally if they don't fit in memory. Each run of tuples of
+ * child2 with the same join field is held in memory while the tuples of
+ * child1 with that field are joined to it.
+ * <p>
+ * Unlike HashEquiJoin, it needs no memory for children already in order, and
+ * returns its tuples in order of the join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int memoryTuples;
+
+    /** Default number of tuples of a child sorted in memory at a time */
+    public final static int RUN_SIZE = 20000;
+
+    transient private ExternalSort in1, in2;
+    //the current tuple of each child, the run of child2 matching t1, and the
+    //next tuple of the run to join t1 to
+    transient private Tuple t1, t2;
+    transient private final List<Tuple> run = new ArrayList<>();
+    transient private int runPos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on, which must be an equality
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, RUN_SIZE);
+    }
+
+    /**
+     * Constructor for a join that sorts at most memoryTuples tuples of a child
+     * in memory at a time.
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort merge join needs an equality predicate, not " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryTuples = memoryTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether the tuples of it come in ascending order of field,
+     *         as far as can be told from the operators it is made of
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof SeqScan)
+            return ((SeqScan) it).isSortedOn(field);
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).isSortedOn(field);
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof Filter)
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            int n1 = j.child1.getTupleDesc().numFields();
+            return field == j.pred.getField1() || field == n1 + j.pred.getField2();
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        in1 = new ExternalSort(child1, pred.getField1(), memoryTuples, isSortedOn(child1, pred.getField1()));
+        in2 = new ExternalSort(child2, pred.getField2(), memoryTuples, isSortedOn(child2, pred.getField2()));
+        in1.open();
+        in2.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        t1 = in1.next();
+        t2 = in2.next();
+        run.clear();
+        runPos = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (in2 != null)
+            in2.close();
+        if (in1 != null)
+            in1.close();
+        in1 = in2 = null;
+        t1 = t2 = null;
+        run.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        in1.rewind();
+        in2.rewind();
+        start();
+    }
+
+    //-1, 0 or 1 as the join field of t1 is less than, equal to or greater than that of t2
+    private int compare(Tuple t1, Tuple t2) {
+        Field f1 = t1.getField(pred.getField1());
+        Field f2 = t2.getField(pred.getField2());
+        if (f1.compare(Predicate.Op.EQUALS, f2))
+            return 0;
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of a tuple of child1 and one of child2
+     * with equal join fields, in ascending order of the join field.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (!run.isEmpty()) {
+                if (runPos < run.size())
+                    return Tuple.concat(t1, run.get(runPos++));
+                // the next tuple of child1 may have the same field, and join the same run
+                t1 = in1.next();
+                runPos = 0;
+                if (t1 != null && compare(t1, run.get(0)) == 0)
+                    continue;
+                run.clear();
+            }
+            if (t1 == null || t2 == null)
+                return null;
+            int c = compare(t1, t2);
+            if (c < 0) {
+                t1 = in1.next();
+            } else if (c > 0) {
+                t2 = in2.next();
+            } else {
+                Field f = t2.getField(pred.getField2());
+                while (t2 != null && f.compare(Predicate.Op.EQUALS, t2.getField(pred.getField2()))) {
+                    run.add(t2);
+                    t2 = in2.next();
+                }
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
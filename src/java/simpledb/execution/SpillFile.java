@@ -0,0 +1,133 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A temporary file of tuples, for operators whose input doesn't fit in
+ * memory. Tuples are appended, then read back any number of times once
+ * writing is done. They are stored in the fixed-size format of a HeapPage
+ * slot and come back without their RecordIds.
+ */
+class SpillFile {
+
+    //The number of spill files created and not deleted yet
+    private static final AtomicInteger live = new AtomicInteger();
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private final byte[] buf;
+    private int size;
+    private boolean deleted;
+
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        this.buf = new byte[td.getSize()];
+        try {
+            file = File.createTempFile("spill", ".tmp");
+            file.deleteOnExit();
+            live.incrementAndGet();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("Can't create a spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the number of spill files that exist, i.e. weren't deleted yet */
+    static int liveFiles() {
+        return live.get();
+    }
+
+    /** @return the number of tuples in the file */
+    int size() {
+        return size;
+    }
+
+    void add(Tuple t) throws DbException {
+        int offset = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(buf, offset);
+            offset += td.getFieldType(i).getLen();
+        }
+        try {
+            out.write(buf);
+        } catch (IOException e) {
+            throw new DbException("Can't write spill file " + file + ": " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** @return a reader over the tuples of the file; no more can be added */
+    Reader reader() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
+        } catch (IOException e) {
+            throw new DbException("Can't read spill file " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Removes the file, any open reader fails afterwards */
+    void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file goes away anyway
+        }
+        out = null;
+        file.delete();
+        if (!deleted)
+            live.decrementAndGet();
+        deleted = true;
+    }
+
+    /** Reads the tuples of a SpillFile in the order they were added */
+    class Reader {
+        private final DataInputStream in;
+        private final byte[] buf = new byte[td.getSize()];
+        private int left = size;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /** @return the next tuple, null once all were read */
+        Tuple next() throws DbException {
+            if (left == 0) {
+                close();
+                return null;
+            }
+            try {
+                in.readFully(buf);
+            } catch (IOException e) {
+                close();
+                throw new DbException("Can't read spill file " + file + ": " + e.getMessage());
+            }
+            left--;
+            Tuple t = new Tuple(td);
+            int offset = 0;
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parse(buf, offset));
+                offset += td.getFieldType(i).getLen();
+            }
+            return t;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final DbFileChannel channel;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -45,6 +46,7 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = new DbFileChannel(f);
 	}
 
 	/**
@@ -86,11 +88,11 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf, 0);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -101,13 +103,8 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageBuf, pageOffset(id.getPageNumber()));
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -126,10 +123,13 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
+	//The file offset of a page other than the root pointer page
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber - 1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -140,17 +140,18 @@ public class BTreeFile implements DbFile {
 		BTreePageId id = (BTreePageId) page.getId();
 		
 		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			channel.write(data, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			channel.write(data, pageOffset(page.getId().getPageNumber()));
 		}
 	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -201,6 +202,8 @@ public class BTreeFile implements DbFile {
 			}else if(!it.hasNext())
 				child=temp.getRightChild();
 		}
+		// the lock is kept, but the page needn't stay in memory while we descend
+		releasePage(tid,dirtypages,pid);
 		return findLeafPage(tid,dirtypages,child,perm,f);
 	}
 
@@ -412,12 +415,20 @@ public class BTreeFile implements DbFile {
 	private void updateParentPointer(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, BTreePageId child)
 			throws DbException, TransactionAbortedException {
 
+		boolean cached = dirtypages.containsKey(child);
 		BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
 
 		if(!p.getParentId().equals(pid)) {
+			if(!cached)
+				Database.getBufferPool().unpinPage(tid, child);
 			p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
 			p.setParentId(pid);
 		}
+		if(!cached) {
+			// a split or merge may touch more children than fit in the buffer pool, so
+			// don't keep them pinned; a modified child is still held in dirtypages
+			Database.getBufferPool().unpinPage(tid, child);
+		}
 
 	}
 	
@@ -480,6 +491,22 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * Releases the pin that {@link #getPage(TransactionId, Map, BTreePageId, Permissions)}
+	 * took on a page which was only read. Call this once the page isn't used any more, and
+	 * before fetching it again with READ_WRITE. Pages in dirtypages stay pinned until the
+	 * buffer pool has marked them dirty.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param pid - the id of the page to release
+	 */
+	private void releasePage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid) {
+		if(!dirtypages.containsKey(pid)) {
+			Database.getBufferPool().unpinPage(tid, pid);
+		}
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order. 
 	 * May cause pages to split if the page where tuple t belongs is full.
@@ -497,6 +524,7 @@ public class BTreeFile implements DbFile {
 		// get a read lock on the root pointer page and use it to locate the root page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
+		releasePage(tid, dirtypages, rootPtr.getId());
 
 		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
@@ -1015,6 +1043,7 @@ public class BTreeFile implements DbFile {
 		// get a read lock on the root pointer page and use it to locate the first header page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
+		releasePage(tid, dirtypages, rootPtr.getId());
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
@@ -1022,6 +1051,7 @@ public class BTreeFile implements DbFile {
 			int headerPageCount = 0;
 			// try to find a header page with an empty slot
 			while(headerPage != null && headerPage.getEmptySlot() == -1) {
+				releasePage(tid, dirtypages, headerId);
 				headerId = headerPage.getNextPageId();
 				if(headerId != null) {
 					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
@@ -1034,6 +1064,7 @@ public class BTreeFile implements DbFile {
 
 			// if headerPage is not null, it must have an empty slot
 			if(headerPage != null) {
+				releasePage(tid, dirtypages, headerId);
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
@@ -1081,10 +1112,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		channel.write(BTreePage.createEmptyPageData(), pageOffset(emptyPageNo));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1133,6 +1161,7 @@ public class BTreeFile implements DbFile {
 		// the first header page
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
+		releasePage(tid, dirtypages, rootPtr.getId());
 		BTreePageId prevId = null;
 		int headerPageCount = 0;
 
@@ -1151,6 +1180,7 @@ public class BTreeFile implements DbFile {
 		// corresponding to emptyPageNo
 		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			releasePage(tid, dirtypages, headerId);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
 			headerPageCount++;
@@ -1235,6 +1265,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		curp = f.findLeafPage(tid, root, null);
 		it = curp.iterator();
 	}
@@ -1252,6 +1283,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
+			// done with this leaf, the buffer pool may evict it
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 			if(nextp == null) {
 				curp = null;
 			}
@@ -1282,6 +1315,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 		it = null;
 		curp = null;
 	}
@@ -1320,6 +1355,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		Database.getBufferPool().unpinPage(tid, rootPtr.getId());
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 			curp = f.findLeafPage(tid, root, ipred.getField());
@@ -1365,6 +1401,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
+				Database.getBufferPool().unpinPage(tid, curp.getId());
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
 				it = curp.iterator();
@@ -1387,6 +1424,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		if (curp != null)
+			Database.getBufferPool().unpinPage(tid, curp.getId());
 		it = null;
+		curp = null;
 	}
 }
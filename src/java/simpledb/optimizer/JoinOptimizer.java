@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,26 +75,47 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
+        if (!(lj instanceof LogicalSubplanJoinNode)
+                && usesIndexJoin(lj.p, IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p), isScanSortedOn(plan1, t1id))) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            // inputs already in order of the join fields, like scans of a
+            // BTreeFile on them, are merged without hashing either
+            if (SortMergeJoin.isSortedOn(plan1, t1id) && SortMergeJoin.isSortedOn(plan2, t2id))
+                j = new SortMergeJoin(p, plan1, plan2);
+            else
+                j = new HashEquiJoin(p, plan1, plan2);
         } else {
-            j = new Join(p, plan1, plan2);
+            j = new Join(p, plan1, plan2, Join.DEFAULT_BLOCK_PAGES);
         }
 
         return j;
 
     }
 
+    /**
+     * Whether a join is run as an index nested loops join, which looks up the
+     * matches of each outer tuple in the index on the inner table. Both
+     * {@link #instantiateJoin} and the cost model decide with this.
+     *
+     * @param innerIndexed
+     *            whether the inner input is a scan of a BTreeFile keyed on
+     *            its join field, and the index can find matches for op
+     * @param outerSorted
+     *            whether the outer input is a scan of a BTreeFile keyed on its
+     *            join field; then an equality join merges the two instead
+     */
+    static boolean usesIndexJoin(Predicate.Op op, boolean innerIndexed, boolean outerSorted) {
+        return innerIndexed && !(op == Predicate.Op.EQUALS && outerSorted);
+    }
+
+    //Whether plan is a scan, maybe filtered, that returns its tuples in order of field
+    private static boolean isScanSortedOn(OpIterator plan, int field) {
+        while (plan instanceof Filter)
+            plan = ((Filter) plan).getChildren()[0];
+        return plan instanceof SeqScan && ((SeqScan) plan).isSortedOn(field);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -121,6 +144,13 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    //outerScan and innerScan tell whether each side is a scan of its base
+    //table, rather than the result of other joins
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerScan, boolean innerScan) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -132,10 +162,64 @@ public class JoinOptimizer {
             // nested-loops join.
             //*joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
             //                       + ntups(t1) x ntups(t2)  //CPU cost
-            return cost1+card1*cost2+card1*card2;
+            boolean innerIndexed = innerScan && innerIndexPages(j) > 0;
+            boolean outerSorted = outerScan && indexOn(j.t1Alias, j.f1PureName) != null;
+            if (usesIndexJoin(j.p, innerIndexed, outerSorted))
+                return indexJoinCost(j, card1, card2, cost1, cost2);
+            if (j.p == Predicate.Op.EQUALS)
+                return cost1+card1*cost2+card1*card2;
+            // other joins are block nested loops, that scan t2 once per block of t1
+            int blocks = (card1 + outerBlockTuples(j) - 1) / outerBlockTuples(j);
+            return cost1+(double)blocks*cost2+(double)card1*card2;
         }
     }
 
+    /** Pages read to find the first match of a tuple in a BTreeFile index */
+    static final int INDEX_PROBE_PAGES = 3;
+
+    //The pages of t2, if it is a BTreeFile on the join field that an index
+    //nested loops join can look up tuples of t1 in, else 0
+    private int innerIndexPages(LogicalJoinNode j) {
+        // the operators an index can find matches for, with the operands swapped
+        if (j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+            return 0;
+        BTreeFile bf = indexOn(j.t2Alias, j.f2PureName);
+        return bf == null ? 0 : Math.max(1, bf.numPages());
+    }
+
+    //The file of the table with that alias, if it is a BTreeFile keyed on field
+    private BTreeFile indexOn(String alias, String field) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null)
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return null;
+        BTreeFile bf = (BTreeFile) f;
+        return field.equals(f.getTupleDesc().getFieldName(bf.keyField())) ? bf : null;
+    }
+
+    //An index nested loops join looks up each tuple of t1 in the index on
+    //t2, and reads the leaf pages holding its matches
+    private double indexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        int pages = innerIndexPages(j);
+        double pageCost = cost2 / pages;
+        int matches = estimateJoinCardinality(j, card1, card2, isPkey(j.t1Alias, j.f1PureName),
+                isPkey(j.t2Alias, j.f2PureName), TableStats.getStatsMap());
+        double matchPages = (double) matches * pages / Math.max(1, card2);
+        return cost1 + card1 * INDEX_PROBE_PAGES * pageCost + matchPages * pageCost + matches;
+    }
+
+    //The tuples of t1 in a block of a block nested loops join; the tuples of
+    //a subplan joined to t1 are wider, so this is a guess for those
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return 1;
+        return Join.blockTuples(Database.getCatalog().getTupleDesc(tableId), Join.DEFAULT_BLOCK_PAGES);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -266,7 +350,7 @@ public class JoinOptimizer {
         }
         //Replace the following
         List<LogicalJoinNode> ans=pc.getOrder(new HashSet<>(joins))==null?joins:pc.getOrder(new HashSet<>(joins));
-//        if(explain)
+        if(explain)
             printJoins(ans,pc,stats,filterSelectivities);
         return ans;
     }
@@ -395,11 +479,15 @@ public class JoinOptimizer {
             }
         }
 
+        // only a side that isn't prevBest is a scan of its table
+        boolean t1Scan = news.isEmpty() || !doesJoin(prevBest, table1Alias);
+        boolean t2Scan = news.isEmpty() || doesJoin(prevBest, table1Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1Scan, t2Scan);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2Scan, t1Scan);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
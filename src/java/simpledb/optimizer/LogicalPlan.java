@@ -274,6 +274,42 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** The fields of a table that the query reads, in the order of the table,
+     *  so that its scan can leave out the others.
+     *  @return the indexes of the fields, or null if the query reads all of them
+     */
+    private int[] scanColumns(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        Set<String> names = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(table.alias + ".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (names.contains(table.alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        if (columns.size() == td.numFields())
+            return null;
+        if (columns.isEmpty())
+            columns.add(0); //a query may still need its rows, e.g. for a cross product
+        int[] res = new int[columns.size()];
+        for (int i = 0; i < res.length; i++)
+            res[i] = columns.get(i);
+        return res;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -297,7 +333,7 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias, scanColumns(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -339,7 +375,8 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            //the statistics are over all the fields of the table, the scan may have fewer
+            double sel = s.estimateSelectivity(Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
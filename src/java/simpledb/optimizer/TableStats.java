@@ -159,7 +159,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ((HeapFile)dbFile).numPages()*ioCostPerPage;
+        return dbFile.numPages()*ioCostPerPage;
     }
 
     /**
@@ -3,16 +3,26 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
-import simpledb.common.DeadlockException;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,6 +32,17 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Concurrency: a page that is already cached is found through the page table
+ * and pinned with a compare-and-set, without taking any latch. Loading,
+ * flushing and discarding a page take one of {@link #NUM_LATCHES} latches
+ * chosen by the page id, so only threads working on the same stripe of
+ * pages serialize. A frame is claimed for eviction by moving its pin count
+ * from 0 to -1, which readers can never pin again.
+ * <p>
+ * Sequential scans have the pages ahead of them read on a background thread,
+ * see {@link #prefetch}. Those pages wait outside the pool until they are
+ * asked for, so they never push out pages that are in use.
  * 
  * @Threadsafe, all fields are final
  */
@@ -35,33 +56,126 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+    /** Number of latches the page ids are striped over */
+    public static final int NUM_LATCHES = 64;
+    /** Default number of pages a sequential scan has read ahead of it */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+    //Reads pages ahead of scans, one read at a time as the disk would anyway
+    private static final ExecutorService readAheadThread = Executors.newSingleThreadExecutor(r->{
+        Thread t=new Thread(r,"read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
     private int numPages;
+    /**
+     * A frame holds one cached page. A new Frame is created every time a page
+     * is loaded, so a reader that pinned a frame always sees the page it asked for.
+     */
     public static class Frame{
-        public int  pin;
-        public Page page;
-        public Frame(Page page){
-            this.pin  = 1;
+        public final int  slot;
+        public final Page page;
+        //number of callers currently using the page, a pinned page is never evicted.
+        //-1 means the frame is being evicted or discarded and can't be pinned any more
+        public final AtomicInteger pin = new AtomicInteger(1);
+        public Frame(int slot, Page page){
+            this.slot = slot;
             this.page = page;
         }
-        public Frame(){
-            //Default constructor
+        /** Pin this frame unless it is being removed from the pool */
+        boolean tryPin(){
+            return pin.getAndUpdate(n->n<0?n:n+1)>=0;
+        }
+        void unpin(int count){
+            pin.updateAndGet(n->n>0?Math.max(0,n-count):n);
         }
     }
-    private final Frame[] frames;
+    private final AtomicReferenceArray<Frame> frames;
+    //This map records which frame a cached page lives in, so lookups don't scan all frames
+    private final Map<PageId,Frame> pageTable;
+    private final ReentrantLock[] latches;
+    //Indexes of the frames that currently hold no page
+    private final Queue<Integer> freeFrames;
+    //Decides which frame is replaced when the pool is full
+    private final EvictionPolicy policy;
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    //Pages read ahead and not asked for yet, none of them in the page table.
+    //Only changed under the page's latch, like the page table
+    private final Map<PageId,Page> readAhead;
+    private final AtomicLong readAheadHits = new AtomicLong();
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    //The pins each transaction holds, pins it never released are dropped when it completes.
+    //Keyed by frame, so a pin on a page that was discarded and loaded again
+    //is never taken off the new frame
+    private final Map<TransactionId,Map<Frame,Integer>> pins = new ConcurrentHashMap<>();
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages,
+     * replacing pages with the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to choose which page to evict
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         // some code goes here
-        this.frames    = new Frame[numPages];
+        this.policy     = policy;
+        this.frames     = new AtomicReferenceArray<>(numPages);
+        this.pageTable  = new ConcurrentHashMap<>();
+        this.freeFrames = new ConcurrentLinkedQueue<>();
+        this.latches    = new ReentrantLock[NUM_LATCHES];
         for(int i=0;i<numPages;i++){
-            this.frames[i] = new Frame();
+            this.freeFrames.add(i);
         }
-        this.numPages  = numPages;
+        for(int i=0;i<NUM_LATCHES;i++){
+            this.latches[i] = new ReentrantLock();
+        }
+        this.numPages   = numPages;
+        //pages of scans that stopped early are dropped, oldest first
+        this.readAhead  = Collections.synchronizedMap(new LinkedHashMap<PageId,Page>(){
+            protected boolean removeEldestEntry(Map.Entry<PageId,Page> eldest){
+                return size()>4*Math.max(readAheadPages,DEFAULT_READ_AHEAD_PAGES);
+            }
+        });
     }
     
+    /** @return the policy this pool uses to choose pages to evict */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls that found the page already cached */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read the page from disk */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of misses whose page had already been read ahead */
+    public long getReadAheadHitCount() {
+        return readAheadHits.get();
+    }
+
+    /** @return the number of pages a sequential scan has read ahead of it */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /** Sets the number of pages a sequential scan has read ahead of it, 0 to read none */
+    public void setReadAheadPages(int pages) {
+        readAheadPages = pages;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -86,6 +200,9 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * The returned page is pinned on behalf of tid and won't be evicted until
+     * it is released with {@link #unpinPage} or tid completes.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
@@ -94,59 +211,105 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        int replace=-1;
-        //We search through the buffer pool for the page with 'PageId' pid
-        Page page=null;
-        while(page==null) {
-            for (int i = 0; i < numPages; i++) {
-                if (frames[i].page == null)
-                    replace = replace == -1 ? i : replace;
-                else if(frames[i].page.getId().equals(pid)) {
-                    //The page is already cached in the buffer pool
-                    frames[i].pin++;
-                    page=frames[i].page;
-                    break;
-                }
-            }
-            //If the page is already cached in the buffer pool,we just return it.
-            if(page!=null)
-                break;
-            //we need to load the page from disk to buffer pool
-            if (replace != -1) {
-                //not full
-                frames[replace] = new Frame(Database.getCatalog().getDatabaseFile(pid.getTableId()).
-                        readPage(pid));
-                page=frames[replace].page;
-            }else{
-                //full
-                evictPage();
-            }
+        return getPage(tid,pid,LockMode.of(perm));
+    }
+
+    /**
+     * Retrieve the specified page, locked in the given mode. Callers that lock
+     * the rows of the page themselves take an intention mode (IS or IX) here.
+     *
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page getPage(TransactionId tid, PageId pid, LockMode mode)
+        throws TransactionAbortedException, DbException {
+        //take the lock first, so we don't hold a frame while we wait for it
+        Database.getLockManager().acquireLock(tid,pid,mode);
+        //fast path: the page is already cached, pin it without taking a latch
+        Frame frame=pageTable.get(pid);
+        if(frame!=null&&frame.tryPin()){
+            hits.incrementAndGet();
+            policy.accessed(frame.slot);
+        }else{
+            frame=loadPage(pid);
         }
-        int times=0;
-        int MAX_TRY=new Random().nextInt(20);
-        while(!Database.getLockManager().AcquireLock(tid,pid,perm)) {
+        Page page=frame.page;
+        if(tid!=null)
+            pins.computeIfAbsent(tid,k->new ConcurrentHashMap<>()).merge(frame,1,Integer::sum);
+        return page;
+    }
+
+    private ReentrantLock latchFor(PageId pid) {
+        return latches[Math.floorMod(pid.hashCode(),NUM_LATCHES)];
+    }
+
+    /**
+     * Finds or loads page pid under its latch and returns its frame pinned once.
+     */
+    private Frame loadPage(PageId pid) throws DbException {
+        ReentrantLock latch=latchFor(pid);
+        latch.lock();
+        try {
+            //another thread may have loaded the page while we waited for the latch
+            Frame frame=pageTable.get(pid);
+            if(frame!=null&&frame.tryPin()){
+                hits.incrementAndGet();
+                policy.accessed(frame.slot);
+                return frame;
+            }
+            Integer slot=freeFrames.poll();
+            if(slot==null)
+                slot=evictPage();
             try {
-                Thread.sleep( 200);
-            } catch (Exception e) {
-                e.printStackTrace();
+                Page page=readAhead.remove(pid);
+                if(page!=null)
+                    readAheadHits.incrementAndGet();
+                else
+                    page=Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                frame=new Frame(slot,page);
+            }catch (RuntimeException e){
+                freeFrames.add(slot);
+                throw e;
             }
-            times++;
-//            System.out.println("Thread_"+Thread.currentThread().getId()+" Tried times:"+times);
-            if(times>MAX_TRY){
-                Boolean has_cycle=Database.getLockManager().check_deadlock(tid,pid,perm);
-                if(has_cycle) {
-                    System.out.println("Thread_"+Thread.currentThread().getId()+" is aborted due to deadlock,have tried "+times);
-
-                    throw new TransactionAbortedException();
-                }
-                else{
-                    times=0;
-                    MAX_TRY=new Random().nextInt(20);
-                    System.out.println("Thread_"+Thread.currentThread().getId()+" need wait longer, since no cycle related to this thread");
+            frames.set(slot,frame);
+            pageTable.put(pid,frame);
+            misses.incrementAndGet();
+            policy.loaded(slot,pid);
+            return frame;
+        }finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Reads pages that are about to be asked for, e.g. the next pages of a
+     * sequential scan, on a background thread, so that the scan finds them in
+     * memory instead of waiting for the disk. The pages aren't locked or
+     * added to the pool: a later {@link #getPage} locks a page as usual and
+     * then takes it instead of reading it. Pages already cached are skipped.
+     *
+     * @return a Future that completes once the pages have been read
+     */
+    public Future<?> prefetch(List<PageId> pids) {
+        return readAheadThread.submit(()->{
+            for(PageId pid:pids){
+                ReentrantLock latch=latchFor(pid);
+                //under the latch, so the page can't be loaded, changed and written
+                //back while we read the version on disk
+                latch.lock();
+                try {
+                    if(!pageTable.containsKey(pid)&&!readAhead.containsKey(pid)){
+                        Page page=Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                        if(page!=null)
+                            readAhead.put(pid,page);
+                    }
+                }catch (RuntimeException e){
+                    //the table went away, the scan will find out itself
+                    return;
+                }finally {
+                    latch.unlock();
                 }
             }
-        }
-        return page;
+        });
     }
 
     /**
@@ -164,6 +327,35 @@ public class BufferPool {
         Database.getLockManager().release_page(tid,pid);
     }
 
+    /**
+     * Releases one pin transaction tid holds on a page, so the page may be
+     * evicted once nobody else uses it. Callers that read a page only for a
+     * moment (e.g. iterators moving to the next page) should call this when
+     * they are done with it; pins still held are released when tid completes.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<Frame,Integer> held=tid==null?null:pins.get(tid);
+        if(held==null)
+            return;
+        Frame frame=pageTable.get(pid);
+        if(frame==null||!held.containsKey(frame)){
+            //the page was discarded since tid pinned it, look for the old frame
+            frame=null;
+            for(Frame f:held.keySet())
+                if(f.page.getId().equals(pid)){
+                    frame=f;
+                    break;
+                }
+            if(frame==null)
+                return;
+        }
+        held.computeIfPresent(frame,(k,n)->n>1?n-1:null);
+        frame.unpin(1);
+    }
+
     /**
      * Release all locks associated with a given transaction.
      *
@@ -191,27 +383,93 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        PageId pid;
         try {
-            for (Frame frame : frames) {
-                if(frame.page!=null) {
-                    pid=frame.page.getId();
-                    if (frame.page.isDirty() == tid) {
+            for (int i=0;i<numPages;i++) {
+                Frame frame=frames.get(i);
+                if(frame!=null) {
+                    Page page=frame.page;
+                    if (page.isDirty() == tid
+                            || (page instanceof HeapPage && ((HeapPage) page).hasRowChanges(tid))) {
                         if (commit) {
-                            flushPage(pid);
-                            // use current page contents as the before-image
-                            // for the next transaction that modifies this page.
-                            frame.page.setBeforeImage();
+                            commitPage(tid, page.getId());
                         } else {
-                            discardPage(pid);
-                            Database.getBufferPool().getPage(tid,pid,Permissions.READ_ONLY);
+                            abortPage(tid, page.getId());
                         }
                     }
                 }
             }
-            Database.getLockManager().release_page(tid);
         }catch (Exception e){
             e.printStackTrace();
+        }finally {
+            Map<Frame,Integer> held=pins.remove(tid);
+            if(held!=null)
+                held.forEach(Frame::unpin);
+            Database.getLockManager().release_page(tid);
+        }
+    }
+
+    /**
+     * Writes what tid changed on a page to disk when it commits. Other running
+     * transactions may have updated other rows of a heap page under row locks;
+     * then a copy of the page without their rows is written instead, and the
+     * page stays dirty on their behalf.
+     */
+    private void commitPage(TransactionId tid, PageId pid) throws IOException {
+        // the log is entered with the BufferPool locked, as LogFile requires
+        synchronized (this) {
+            ReentrantLock latch=latchFor(pid);
+            latch.lock();
+            try {
+                Frame frame=pageTable.get(pid);
+                if(frame==null)
+                    return;
+                Page page=frame.page;
+                synchronized (page) {
+                    HeapPage image=page instanceof HeapPage?((HeapPage) page).commitRows(tid):null;
+                    if(image==null) {
+                        flushFrame(frame);
+                        // use current page contents as the before-image
+                        // for the next transaction that modifies this page.
+                        page.setBeforeImage();
+                    }else {
+                        Database.getLogFile().logWrite(tid, page.getBeforeImage(), image);
+                        Database.getLogFile().force();
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+                        ((HeapPage) page).setBeforeImage(image);
+                    }
+                }
+            }finally {
+                latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Undoes what tid changed on a page when it aborts. Row changes are undone
+     * in place, so the rows of other running transactions survive; a page tid
+     * changed otherwise is discarded, and the next reader loads the committed
+     * version from disk.
+     */
+    private void abortPage(TransactionId tid, PageId pid) {
+        ReentrantLock latch=latchFor(pid);
+        latch.lock();
+        try {
+            Frame frame=pageTable.get(pid);
+            if(frame==null)
+                return;
+            Page page=frame.page;
+            synchronized (page) {
+                if(page instanceof HeapPage&&((HeapPage) page).hasRowChanges(tid)) {
+                    //the page is back to its committed contents unless somebody else
+                    //still has rows on it
+                    if(!((HeapPage) page).rollbackRows(tid)&&page.isDirty()==tid)
+                        page.markDirty(false,tid);
+                }else {
+                    discardPage(pid);
+                }
+            }
+        }finally {
+            latch.unlock();
         }
     }
 
@@ -238,6 +496,9 @@ public class BufferPool {
             List<Page> pages = dbFile.insertTuple(tid, t);
             for (Page page : pages) {
                 page.markDirty(true, tid);
+                // NO STEAL keeps a dirty page in the pool until tid completes, so the
+                // pin the file took on it isn't needed any more
+                unpinPage(tid, page.getId());
             }
         }catch (IOException e){
             e.printStackTrace();
@@ -266,6 +527,9 @@ public class BufferPool {
             List<Page> pages = dbFile.deleteTuple(tid, t);
             for (Page page : pages) {
                 page.markDirty(true, tid);
+                // NO STEAL keeps a dirty page in the pool until tid completes, so the
+                // pin the file took on it isn't needed any more
+                unpinPage(tid, page.getId());
             }
         }catch (IOException e){
             e.printStackTrace();
@@ -277,10 +541,11 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
-        for(Frame frame:frames){
-            if(frame.page!=null) {
+        for(int i=0;i<numPages;i++){
+            Frame frame=frames.get(i);
+            if(frame!=null) {
                 flushPage(frame.page.getId());
             }
         }
@@ -294,14 +559,24 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-        for(Frame frame:frames){
-            if(frame.page!=null&&frame.page.getId().equals(pid)){
-                frame.pin=0;
-                frame.page=null;
-                break;
+        ReentrantLock latch=latchFor(pid);
+        latch.lock();
+        try {
+            readAhead.remove(pid);
+            Frame frame=pageTable.remove(pid);
+            if(frame!=null){
+                //the page goes away even if somebody still has it pinned
+                frame.pin.set(-1);
+                //unless an evictor already took the frame, the slot is ours to free
+                if(frames.compareAndSet(frame.slot,frame,null)){
+                    policy.removed(frame.slot);
+                    freeFrames.add(frame.slot);
+                }
             }
+        }finally {
+            latch.unlock();
         }
     }
 
@@ -309,28 +584,55 @@ public class BufferPool {
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        // the log is entered with the BufferPool locked, as LogFile requires
+        synchronized (this) {
+            ReentrantLock latch=latchFor(pid);
+            latch.lock();
+            try {
+                Frame frame=pageTable.get(pid);
+                if(frame!=null){
+                    flushFrame(frame);
+                }
+            }finally {
+                latch.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the page held by a frame to disk if it is dirty
+     * @param frame the frame whose page should be flushed
+     */
+    private void flushFrame(Frame frame) throws IOException {
+        Page page=frame.page;
         TransactionId tid;
-        for(Frame frame:frames){
-            if(frame.page!=null&&frame.page.getId().equals(pid)){
-                if((tid=frame.page.isDirty())!=null) {
-                    // append an update record to the log, with
-                    // a before-image and after-image.
-                    Database.getLogFile().logWrite(tid, frame.page.getBeforeImage(), frame.page);
-                    Database.getLogFile().force();
-                    dbFile.writePage(frame.page);
-                    frame.page.markDirty(false,tid);
+        //transactions updating other rows of the page wait, so the image is consistent
+        synchronized (page) {
+            if((tid=page.isDirty())!=null) {
+                if(page instanceof HeapPage&&((HeapPage) page).hasOtherRowChanges(tid)) {
+                    //an update record could only undo tid's rows, the others' would reach
+                    //disk unlogged: write just what is committed, which needs no undo, and
+                    //the page stays dirty until they complete
+                    HeapPage image=((HeapPage) page).committedImage();
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(image);
+                    ((HeapPage) page).setBeforeImage(image);
+                    return;
                 }
-                break;
+                // append an update record to the log, with
+                // a before-image and after-image.
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                Database.getLogFile().force();
+                Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                page.markDirty(false,tid);
             }
         }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
 
@@ -339,20 +641,35 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     *
+     * @return the index of the frame that was freed, the caller owns it
      */
-    private synchronized void evictPage() throws DbException {
+    private int evictPage() throws DbException {
         // some code goes here
-        Random rand = new Random();
-        int next=rand.nextInt(numPages);
-        int temp=next;
-        while(frames[temp].page.isDirty()!=null) {
-            temp=(temp+1)%numPages;
-            if(temp==next)
-                throw new DbException("All pages are dirty,eviction failed!");
+        while(true) {
+            //NO STEAL: dirty pages must stay in the pool until their transaction completes
+            int victim=policy.victim(i->{
+                Frame f=frames.get(i);
+                return f!=null&&f.pin.get()==0&&f.page.isDirty()==null;
+            });
+            if(victim==-1)
+                throw new DbException("All pages are dirty or pinned,eviction failed!");
+            Frame frame=frames.get(victim);
+            //somebody may have pinned the frame since the policy looked at it
+            if(frame==null||!frame.pin.compareAndSet(0,-1))
+                continue;
+            if(frame.page.isDirty()!=null){
+                frame.pin.compareAndSet(-1,0);
+                continue;
+            }
+            //locks are held until the transaction completes, caching a page doesn't change that
+            pageTable.remove(frame.page.getId(),frame);
+            //a concurrent discardPage may have freed the frame already
+            if(!frames.compareAndSet(victim,frame,null))
+                continue;
+            policy.removed(victim);
+            return victim;
         }
-        PageId pid=frames[temp].page.getId();
-        discardPage(pid);
-        Database.getLockManager().release_page(pid);
     }
 
 }
@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second chance) replacement. Every frame has a reference bit that is
+ * set on each access; the clock hand sweeps the frames, clearing set bits and
+ * evicting the first evictable frame whose bit is already clear.
+ */
+public class ClockPolicy implements EvictionPolicy {
+    private final boolean[] referenced;
+    private final boolean[] inUse;
+    private int hand;
+
+    public ClockPolicy(int numPages) {
+        this.referenced = new boolean[numPages];
+        this.inUse      = new boolean[numPages];
+        this.hand       = 0;
+    }
+
+    public synchronized void loaded(int frame, PageId pid) {
+        inUse[frame]      = true;
+        referenced[frame] = true;
+    }
+
+    //Not synchronized so cache hits stay latch free: a reference bit set while the
+    //hand sweeps past at worst gives the page one sweep less of a second chance
+    public void accessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public synchronized void removed(int frame) {
+        inUse[frame]      = false;
+        referenced[frame] = false;
+    }
+
+    public synchronized int victim(IntPredicate evictable) {
+        int n = referenced.length;
+        //Two full sweeps are enough: the first one clears every reference bit
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (!inUse[frame] || !evictable.test(frame))
+                continue;
+            if (referenced[frame])
+                referenced[frame] = false;
+            else
+                return frame;
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return "CLOCK";
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A HeapFile whose pages are compressed on disk, for large tables that are
+ * scanned much more often than they are updated. Pages are the usual
+ * HeapPages in the buffer pool; they are compressed in writePage and
+ * decompressed in readPage.
+ * <p>
+ * Compressed pages differ in size, so the file is a log of page versions:
+ * <p>
+ *      [magic: 4 bytes][page size: 4 bytes] then records of
+ *      [page number: 4 bytes][length: 4 bytes][deflated page]
+ * <p>
+ * Writing a page appends a new record, and the last record of a page is its
+ * current version. The position of each page's current record is found by
+ * walking the records when the file is first used. A record cut short by a
+ * crash while it was appended is cut off, leaving the previous version.
+ * Rewriting the table with {@link HeapFileEncoder#compress} drops the old
+ * versions.
+ *
+ * @see HeapFileEncoder#compress
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    static final int MAGIC = 0x53444246; // "SDBF"
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    //The position in the file of the current version of each page, 0 if the
+    //page was never written, and its compressed length; null until first used
+    private long[] offsets;
+    private int[] lengths;
+    private int numPages;
+    //where the next record is appended
+    private long end;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    //Walks the records of the file to find the current version of each page
+    private synchronized void index() throws IOException {
+        if (offsets != null)
+            return;
+        offsets = new long[16];
+        lengths = new int[16];
+        numPages = 0;
+        long size = getFile().length();
+        if (size < FILE_HEADER_SIZE) {
+            end = 0;
+            return;
+        }
+        byte[] header = new byte[FILE_HEADER_SIZE];
+        channel.read(header, 0);
+        if (readInt(header, 0) != MAGIC || readInt(header, 4) != BufferPool.getPageSize())
+            throw new IOException("Not a compressed heap file with pages of "
+                    + BufferPool.getPageSize() + " bytes: " + getFile());
+        long pos = FILE_HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= size) {
+            channel.read(header, pos);
+            int pgNo = readInt(header, 0);
+            int length = readInt(header, 4);
+            if (pgNo < 0 || length < 0 || pos + RECORD_HEADER_SIZE + length > size)
+                break; // a torn append
+            setPage(pgNo, pos + RECORD_HEADER_SIZE, length);
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        // drop a torn append, so the rest of it can't be mistaken for records later
+        if (pos < size)
+            channel.truncate(pos);
+        end = pos;
+    }
+
+    private void setPage(int pgNo, long offset, int length) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(pgNo + 1, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    @Override
+    byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            index();
+            if (pgNo >= numPages || offsets[pgNo] == 0)
+                return new byte[BufferPool.getPageSize()];
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        // records are never overwritten, so this one can be read unlocked
+        byte[] compressed = new byte[length];
+        channel.read(compressed, offset);
+        return inflate(compressed);
+    }
+
+    @Override
+    void readPageHeader(int pgNo, byte[] header) throws IOException {
+        System.arraycopy(readPageData(pgNo), 0, header, 0, header.length);
+    }
+
+    @Override
+    synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        index();
+        if (end == 0) {
+            byte[] header = new byte[FILE_HEADER_SIZE];
+            writeInt(header, 0, MAGIC);
+            writeInt(header, 4, BufferPool.getPageSize());
+            channel.write(header, 0);
+            end = FILE_HEADER_SIZE;
+        }
+        byte[] record = deflate(data);
+        writeInt(record, 0, pgNo);
+        writeInt(record, 4, record.length - RECORD_HEADER_SIZE);
+        channel.write(record, end);
+        setPage(pgNo, end + RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+        end += record.length;
+    }
+
+    @Override
+    public int numPages() {
+        try {
+            synchronized (this) {
+                index();
+                return numPages;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        // the file may be replaced while closed, e.g. by a compaction
+        synchronized (this) {
+            offsets = null;
+        }
+    }
+
+    //data deflated, after RECORD_HEADER_SIZE bytes left for the record header
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[RECORD_HEADER_SIZE + data.length + 64];
+            int n = RECORD_HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (n == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[BufferPool.getPageSize()];
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated compressed page");
+                n += read;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
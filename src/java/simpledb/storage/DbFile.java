@@ -24,6 +24,11 @@ public interface DbFile {
      */
     Page readPage(PageId id);
 
+    /**
+     * Returns the number of pages in this file.
+     */
+    int numPages();
+
     /**
      * Push the specified page to disk.
      *
@@ -73,6 +78,44 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile, projected to
+     * columns: each tuple has the fields at those indexes of the TupleDesc, in
+     * that order, and a TupleDesc of {@link TupleDesc#project}. Files that can
+     * read single columns override this to read only those.
+     *
+     * @return an iterator over the projected tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return project(iterator(tid), getTupleDesc().project(columns), columns);
+    }
+
+    /**
+     * @return an iterator over the tuples of it projected to columns, as
+     *         tuples of td
+     */
+    static DbFileIterator project(DbFileIterator it, TupleDesc td, int[] columns) {
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+                super.close();
+            }
+
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                return it.hasNext() ? it.next().project(td, columns) : null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +136,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Releases the file handles this DbFile keeps open. Called when the
+     * catalog drops the table; the DbFile may still be used afterwards and
+     * then reopens them.
+     */
+    default void close() throws IOException {
+    }
 }
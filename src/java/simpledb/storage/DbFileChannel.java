@@ -0,0 +1,89 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A long-lived FileChannel over the file backing a DbFile, so that page I/O
+ * doesn't open the file (and leak a descriptor) on every call.
+ * <p>
+ * Pages are read and written with positional I/O straight from and into the
+ * page's byte array, so concurrent callers don't share a file position and no
+ * intermediate buffer is copied. The channel is opened on first use, and
+ * reopened if it was closed by {@link #close} or by an interrupted reader.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel implements Closeable {
+    private final File file;
+    private FileChannel channel;
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        return channel;
+    }
+
+    /**
+     * Reads data.length bytes at position into data, or as many as the file
+     * holds; the rest of data is left untouched.
+     *
+     * @return the number of bytes read, 0 if position is at or past the end of the file
+     */
+    public int read(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (true) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, position + buf.position()) < 0)
+                        break;
+                }
+                return buf.position();
+            } catch (ClosedChannelException e) {
+                // closed by close(), or by another thread interrupted during its I/O: reopen
+                if (e instanceof ClosedByInterruptException)
+                    throw e;
+            }
+        }
+    }
+
+    /** Writes all of data at position */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (true) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining())
+                    ch.write(buf, position + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException)
+                    throw e;
+            }
+        }
+    }
+
+    /** Cuts the file off at size bytes */
+    public void truncate(long size) throws IOException {
+        channel().truncate(size);
+    }
+
+    /** Closes the channel; it is reopened if the file is used again */
+    public synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        channel = null;
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * EvictionPolicy decides which frame of the BufferPool is replaced when the
+ * pool is full. The BufferPool tells the policy about every page it loads,
+ * every cache hit and every frame it empties; the policy keeps whatever
+ * recency/frequency bookkeeping it needs per frame.
+ * <p>
+ * The BufferPool chooses its policy when it is constructed.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when page pid has been read into the given frame.
+     *
+     * @param frame index of the frame the page was loaded into
+     * @param pid the id of the loaded page
+     */
+    void loaded(int frame, PageId pid);
+
+    /**
+     * Called when the page cached in the given frame is requested again.
+     *
+     * @param frame index of the frame that was hit
+     */
+    void accessed(int frame);
+
+    /**
+     * Called when the given frame no longer holds a page (evicted or discarded).
+     *
+     * @param frame index of the emptied frame
+     */
+    void removed(int frame);
+
+    /**
+     * Choose the frame to evict.
+     *
+     * @param evictable tells whether a frame may be evicted right now
+     *                  (e.g. it is neither dirty nor pinned)
+     * @return the index of the victim frame, or -1 if no frame can be evicted
+     */
+    int victim(IntPredicate evictable);
+
+    /** @return a short name of this policy, used when reporting statistics */
+    String getName();
+}
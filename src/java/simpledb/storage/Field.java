@@ -17,6 +17,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the same bytes as {@link #serialize(DataOutputStream)} straight
+     * into data at offset, i.e. getType().getLen() bytes.
+     * @param data The array to write to, e.g. a page buffer
+     * @param offset Where in data to write the field
+     */
+    void serialize(byte[] data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
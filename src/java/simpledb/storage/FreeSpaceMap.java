@@ -0,0 +1,39 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+
+/**
+ * Tracks which pages of a HeapFile have empty slots, so that an insert goes
+ * straight to a page with room instead of locking and reading every full page
+ * before it.
+ * <p>
+ * The map is only a hint: it is updated whenever a page is read, written,
+ * inserted into or deleted from, and a page it points to is still checked by
+ * the insert. A page it wrongly thinks full (e.g. after an aborted insert was
+ * rolled back in place) is found again the next time the page is read.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+    private final BitSet free = new BitSet();
+    //no page below this one has free slots, so searches start here
+    private int lowest;
+
+    /** Records whether page pgNo has empty slots */
+    public synchronized void update(int pgNo, boolean hasFree) {
+        free.set(pgNo, hasFree);
+        if (hasFree && pgNo < lowest)
+            lowest = pgNo;
+    }
+
+    /**
+     * @return the first page at or after pgNo with empty slots, or -1 if
+     *         there is none
+     */
+    public synchronized int nextFree(int pgNo) {
+        int next = free.nextSetBit(Math.max(pgNo, lowest));
+        if (pgNo <= lowest)
+            lowest = next < 0 ? free.length() : next;
+        return next;
+    }
+}
@@ -3,7 +3,8 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
-import simpledb.common.Permissions;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -31,10 +32,16 @@ public class HeapFile implements DbFile {
      */
     private final File      file;
     private final TupleDesc schema;
+    final DbFileChannel channel;
+    //Each thread serializes the pages it writes into one reused buffer
+    private static final ThreadLocal<byte[]> writeBuffer = new ThreadLocal<>();
+    //The pages with empty slots, built from the page headers on the first insert
+    private volatile FreeSpaceMap freeSpace;
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
         file=f;
         schema=td;
+        channel=new DbFileChannel(f);
     }
 
     /**
@@ -73,15 +80,10 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        int offset = BufferPool.getPageSize()*pid.getPageNumber();
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(offset);
-            byte[] temp = new byte[(int) Math.min(BufferPool.getPageSize(),raf.length()-offset)];
-            byte[] data = new byte[BufferPool.getPageSize()];
-            raf.readFully(temp);
-            System.arraycopy(temp,0,data,0,temp.length);
-            return new HeapPage((HeapPageId)pid,data);
+            HeapPage page = createPage((HeapPageId)pid,readPageData(pid.getPageNumber()));
+            noteFreeSpace(page);
+            return page;
         }catch(Exception e){
             e.printStackTrace();
         }
@@ -91,16 +93,84 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        int offset = BufferPool.getPageSize()*page.getId().getPageNumber();
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "rw");
-            raf.seek(offset);
-            raf.write(page.getPageData());
+            writePageData(page.getId().getPageNumber(),pageData(page));
+            if(page instanceof HeapPage)
+                noteFreeSpace((HeapPage) page);
         }catch(Exception e){
             e.printStackTrace();
         }
     }
 
+    /** Creates the page of this file read from data */
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid,data);
+    }
+
+    /**
+     * Reads the bytes of page pgNo from the file; a page past the end of the
+     * file reads as zeros, i.e. empty.
+     */
+    byte[] readPageData(int pgNo) throws IOException {
+        long offset = (long) BufferPool.getPageSize()*pgNo;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        channel.read(data,offset);
+        return data;
+    }
+
+    /** Reads the first header.length bytes of page pgNo, the rest of the page isn't needed */
+    void readPageHeader(int pgNo, byte[] header) throws IOException {
+        Arrays.fill(header,(byte)0);
+        channel.read(header,(long) BufferPool.getPageSize()*pgNo);
+    }
+
+    /** Writes data, which may be reused by the caller afterwards, as page pgNo */
+    void writePageData(int pgNo, byte[] data) throws IOException {
+        channel.write(data,(long) BufferPool.getPageSize()*pgNo);
+    }
+
+    //The free-space map, built on first use from the header of each page on disk
+    private FreeSpaceMap freeSpace() throws IOException {
+        FreeSpaceMap fsm=freeSpace;
+        if(fsm!=null)
+            return fsm;
+        synchronized(this) {
+            if(freeSpace==null) {
+                fsm=new FreeSpaceMap();
+                int numSlots=(BufferPool.getPageSize()*8)/(schema.getSize()*8+1);
+                byte[] header=new byte[(numSlots+7)/8];
+                for(int pgNo=0;pgNo<numPages();pgNo++){
+                    readPageHeader(pgNo,header);
+                    int used=0;
+                    for(byte b:header)
+                        used+=Integer.bitCount(b&0xff);
+                    fsm.update(pgNo,used<numSlots);
+                }
+                freeSpace=fsm;
+            }
+            return freeSpace;
+        }
+    }
+
+    private void noteFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm=freeSpace;
+        if(fsm!=null)
+            fsm.update(page.getId().getPageNumber(),page.getNumEmptySlots()>0);
+    }
+
+    //The bytes of page, in this thread's write buffer, valid until its next write
+    private static byte[] pageData(Page page) {
+        if(!(page instanceof HeapPage))
+            return page.getPageData();
+        byte[] buf = writeBuffer.get();
+        if(buf==null||buf.length!=BufferPool.getPageSize()) {
+            buf = new byte[BufferPool.getPageSize()];
+            writeBuffer.set(buf);
+        }
+        ((HeapPage) page).getPageData(buf);
+        return buf;
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -110,51 +180,85 @@ public class HeapFile implements DbFile {
     }
 
     // see DbFile.java for javadocs
+    // Updates lock the table and the page in IX mode and only the row in X mode,
+    // so transactions updating different rows of a page run concurrently.
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
+        LockManager lockManager=Database.getLockManager();
+        lockManager.acquireTableLock(tid,getId(),LockMode.IX);
         Boolean done=false;
         HeapPage page=null;
-        for(int pgNo=0;pgNo<numPages();pgNo++){
-            page=(HeapPage)Database.getBufferPool().getPage(tid,new HeapPageId(getId(),pgNo),Permissions.READ_WRITE);
-            if(page.getNumEmptySlots()>0) {
-                page.insertTuple(t);
-                done=true;
+        FreeSpaceMap fsm=freeSpace();
+        // only visit the pages the free-space map thinks have room
+        for(int pgNo=fsm.nextFree(0);pgNo>=0&&pgNo<numPages();pgNo=fsm.nextFree(pgNo+1)){
+            HeapPageId pid=new HeapPageId(getId(),pgNo);
+            // a lock held before this scan may guard earlier work, keep it until commit
+            boolean held=lockManager.holdsLock(tid,pid);
+            page=(HeapPage)Database.getBufferPool().getPage(tid,pid,LockMode.IX);
+            done=page.getNumEmptySlots()>0&&insertTuple(tid,page,t);
+            noteFreeSpace(page);
+            if(done)
                 break;
-            }
-            Database.getLockManager().release_page(tid, page.getId());
+            if(!held)
+                lockManager.release_page(tid, page.getId());
+            Database.getBufferPool().unpinPage(tid, page.getId());
         }
         if(!done){
             // If no such pages exist in the HeapFile(i.e. all pages are full)
             // you need to create a new page and append it to the physical file on disk.
-            HeapPage new_page = new HeapPage(new HeapPageId(getId(),numPages()),HeapPage.createEmptyPageData());
+            HeapPage new_page = createPage(new HeapPageId(getId(),numPages()),HeapPage.createEmptyPageData());
             //To clear the position on the disk
             writePage(new_page);
             //We must get this page again via buffer pool
-            page=(HeapPage)Database.getBufferPool().getPage(tid,new_page.getId(),Permissions.READ_WRITE);
-            page.insertTuple(t);
+            page=(HeapPage)Database.getBufferPool().getPage(tid,new_page.getId(),LockMode.IX);
+            if(!insertTuple(tid,page,t))
+                throw new DbException("Insert tuple error,no free slot on the new page");
+            noteFreeSpace(page);
         }
         ArrayList<Page> res = new ArrayList<>();
         res.add(page);
         return res;
     }
 
+    //Insert into a slot we can lock. A slot freed by a delete that hasn't committed
+    //yet is still locked by the deleter, who may need it back if it aborts
+    private boolean insertTuple(TransactionId tid, HeapPage page, Tuple t) throws DbException {
+        LockManager lockManager=Database.getLockManager();
+        return page.insertTuple(tid,t,slotno->
+                lockManager.tryAcquireLock(tid,new RecordId(page.getId(),slotno),LockMode.X));
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        Page page=Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
-        ((HeapPage)page).deleteTuple(t);
+        RecordId rid=t.getRecordId();
+        Database.getLockManager().acquireTableLock(tid,getId(),LockMode.IX);
+        Page page=Database.getBufferPool().getPage(tid,rid.getPageId(),LockMode.IX);
+        Database.getLockManager().acquireLock(tid,rid,LockMode.X);
+        ((HeapPage)page).deleteTuple(tid,t);
+        noteFreeSpace((HeapPage)page);
         ArrayList<Page> res = new ArrayList<>();
         res.add(page);
         return res;
     }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(tid,getId(),numPages());
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(tid,getId(),numPages(),columns);
+    }
+
 }
 
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -147,7 +149,7 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
+            else   if (typeAr[fieldNo] == Type.STRING_TYPE || typeAr[fieldNo] == Type.VARSTRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
                 if (overflow < 0) {
@@ -224,4 +226,118 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file of
+   * slotted pages, with the same input format as
+   * {@link #convert(File, File, int, int, Type[], char)}. VARSTRING_TYPE
+   * values take only their real length. <br>
+   *
+   * The format of the output file will be as specified in SlottedPage.
+   *
+   * @see SlottedPage
+   * @see SlottedHeapFile
+   * @throws IOException if the input/output file can't be opened, or a
+   *   record doesn't fit on a page
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    TupleDesc td = new TupleDesc(typeAr);
+    List<Tuple> tuples = new ArrayList<>();
+    int used = SlottedPage.HEADER_SIZE;
+    int npages = 0;
+
+    try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+         FileOutputStream os = new FileOutputStream(outFile)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.isEmpty())
+          continue;
+        String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        Tuple t = new Tuple(td);
+        try {
+          for (int i = 0; i < numFields; i++) {
+            String s = i < values.length ? values[i].trim() : "";
+            if (typeAr[i] == Type.INT_TYPE)
+              t.setField(i, new IntField(Integer.parseInt(s)));
+            else
+              t.setField(i, new StringField(s, Type.STRING_LEN, typeAr[i]));
+          }
+        } catch (NumberFormatException e) {
+          System.out.println ("BAD LINE : " + line);
+          continue;
+        }
+
+        // start a new page when this record doesn't fit on the current one
+        if (used + SlottedPage.spaceFor(t) > npagebytes) {
+          if (tuples.isEmpty())
+            throw new IOException("Record doesn't fit on a page : " + line);
+          os.write(SlottedPage.createPageData(tuples, npagebytes));
+          npages++;
+          tuples.clear();
+          used = SlottedPage.HEADER_SIZE;
+        }
+        tuples.add(t);
+        used += SlottedPage.spaceFor(t);
+      }
+
+      // flush the last page, or an empty page if this file is empty
+      if (!tuples.isEmpty() || npages == 0)
+        os.write(SlottedPage.createPageData(tuples, npagebytes));
+    }
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * PaxPages, with the same input format as
+   * {@link #convert(File, File, int, int, Type[], char)}. The pages hold the
+   * same tuples as the HeapPages convert writes, each column in its own
+   * minipage. <br>
+   *
+   * The format of the output file will be as specified in PaxPage.
+   *
+   * @see PaxPage
+   * @see PaxFile
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+    Type[] types = Arrays.copyOf(typeAr, numFields);
+    // rearrange each page written in place
+    try (RandomAccessFile f = new RandomAccessFile(outFile, "rw")) {
+      byte[] page = new byte[npagebytes];
+      for (long offset = 0; offset < f.length(); offset += npagebytes) {
+        f.seek(offset);
+        f.readFully(page);
+        f.seek(offset);
+        f.write(PaxPage.fromRows(page, types));
+      }
+    }
+  }
+
+  /** Rewrite a table as a compressed heap file, e.g. a large, rarely
+   * updated HeapFile to save space and scan I/O, or a CompressedHeapFile to
+   * drop the old versions of its pages. The table must not change while it
+   * is rewritten: flush the buffer pool first. <br>
+   *
+   * The format of the output file will be as specified in CompressedHeapFile.
+   *
+   * @see CompressedHeapFile
+   * @param table the table to rewrite
+   * @param outFile The output file to write data to, replaced if it exists
+   * @throws IOException if the table can't be read or the output file can't
+   *   be written
+   */
+  public static void compress(HeapFile table, File outFile) throws IOException {
+    new FileOutputStream(outFile).close(); // start empty
+    CompressedHeapFile out = new CompressedHeapFile(outFile, table.getTupleDesc());
+    try {
+      for (int pgNo = 0; pgNo < table.numPages(); pgNo++)
+        out.writePageData(pgNo, table.readPageData(pgNo));
+    } finally {
+      out.close();
+    }
+  }
 }
@@ -3,22 +3,35 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.Iterator;
 
+/**
+ * Iterates over the tuples of a file of HeapPageIds, whose pages are
+ * Iterable over their tuples, e.g. a HeapFile or a SlottedHeapFile.
+ */
 public class HeapFileIterator extends AbstractDbFileIterator {
     private final int pageNum;
     private final TransactionId tid;
     private final int tableid;
+    //the columns to project the tuples to, null for whole tuples
+    private final int[] columns;
+    private final ReadAhead readAhead;
     private int   curPgno=0;
     private Iterator<Tuple> curPage=null;
     HeapFileIterator(TransactionId tid,int tableId,int pageNum){
+        this(tid,tableId,pageNum,null);
+    }
+    HeapFileIterator(TransactionId tid,int tableId,int pageNum,int[] columns){
         this.tid     = tid;
         this.tableid = tableId;
         this.pageNum = pageNum;
+        this.columns = columns;
+        this.readAhead = new ReadAhead(tableId, pageNum);
         this.curPage = null;
     }
     @Override
@@ -30,9 +43,10 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         //Handle read out a page
         while(this.curPgno<this.pageNum) {
             if (this.curPage == null)
-                this.curPage = ((HeapPage) Database.getBufferPool().
-                        getPage(tid, new HeapPageId(this.tableid, this.curPgno), Permissions.READ_ONLY)).iterator();
+                this.curPage = pageIterator(this.curPgno);
             if (!this.curPage.hasNext()){
+                //we are done with this page, let the buffer pool evict it
+                Database.getBufferPool().unpinPage(tid, new HeapPageId(this.tableid, this.curPgno));
                 this.curPage = null;
                 this.curPgno++;
             }else{
@@ -45,8 +59,18 @@ public class HeapFileIterator extends AbstractDbFileIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        this.curPage = ((HeapPage) Database.getBufferPool().
-                getPage(tid, new HeapPageId(this.tableid, 0), Permissions.READ_ONLY)).iterator();
+        //the pages are read-locked one by one, announce that on the table
+        Database.getLockManager().acquireTableLock(tid, this.tableid, LockMode.IS);
+        this.curPage = pageIterator(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterator<Tuple> pageIterator(int pgno) throws DbException, TransactionAbortedException {
+        readAhead.accessed(pgno);
+        Page page = Database.getBufferPool().getPage(tid, new HeapPageId(this.tableid, pgno), Permissions.READ_ONLY);
+        if(columns!=null)
+            return ((HeapPage) page).iterator(columns);
+        return ((Iterable<Tuple>) page).iterator();
     }
 
     @Override
@@ -58,6 +82,8 @@ public class HeapFileIterator extends AbstractDbFileIterator {
     @Override
     public void close() {
         super.close();
+        if(this.curPage!=null)
+            Database.getBufferPool().unpinPage(tid, new HeapPageId(this.tableid, this.curPgno));
         this.curPgno=0;
         this.curPage=null;
     }
@@ -8,7 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntPredicate;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,18 +18,45 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements Page, Iterable<Tuple> {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    //The header: bit i of word i/64 is set if slot i is used, the header bytes
+    //read as little-endian longs
+    final long[] used;
+    final int headerSize;
+    //the number of empty slots, kept up to date by markSlotUsed
+    private int numEmpty;
+    //The tuples of the page, decoded lazily: null until the slot is first read
     final Tuple[] tuples;
     final int numSlots;
-    List<Tuple> livetuples = new CopyOnWriteArrayList<>();
+    //The page as it was read or last committed, never modified: slots not
+    //decoded or changed since are read from and written back from here
+    private volatile byte[] data;
+    private final int tupleSize;
+    //Field j of slot i is at fieldBase[j]+i*fieldStride[j]: tuples one after
+    //another, or each column in its own minipage for a PaxPage
+    private final int[] fieldBase;
+    private final int[] fieldStride;
     byte[] oldData;
     Boolean dirty=false;
     TransactionId dirtytid;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
+    //The uncommitted row changes of each transaction that updated this page under
+    //row locks, so that one of them can commit or abort without the others' rows
+    private final Map<TransactionId,List<RowChange>> rowChanges=new HashMap<>();
+
+    //A row inserted or deleted by a running transaction, enough to undo it
+    private static class RowChange{
+        final int slotno;
+        //the deleted tuple, null for an insert
+        final Tuple deleted;
+        RowChange(int slotno, Tuple deleted){
+            this.slotno=slotno;
+            this.deleted=deleted;
+        }
+    }
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -43,6 +70,11 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * <p>
+     * The page keeps data instead of parsing it: a tuple is only created when
+     * its slot is read, and each field is only decoded when it is read. data
+     * must not be modified once it is passed in.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -51,28 +83,41 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
+        this.tupleSize = td.getSize();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        headerSize = getHeaderSize();
+        fieldBase = new int[td.numFields()];
+        fieldStride = new int[td.numFields()];
+        int start = headerSize;
+        for (int j=0; j<fieldBase.length; j++) {
+            int len = td.getFieldType(j).getLen();
+            fieldBase[j] = start;
+            fieldStride[j] = isColumnar() ? len : tupleSize;
+            start += isColumnar() ? numSlots * len : len;
         }
-        dis.close();
+        used = new long[(numSlots+63)/64];
+        for (int k=0; k<headerSize; k++)
+            used[k>>>3] |= (data[k] & 0xffL) << (8*(k&7));
+        numEmpty = numSlots;
+        for (int w=0; w<used.length; w++)
+            numEmpty -= Long.bitCount(w == used.length-1 ? used[w] & lastWordMask() : used[w]);
+        tuples = new Tuple[numSlots];
 
-        setBeforeImage();
-        for(int i=0;i<numSlots;i++){
-            if(isSlotUsed(i))
-                livetuples.add(tuples[i]);
-        }
+        // nothing has changed yet, so data is also the before-image; the page
+        // isn't shared yet, so this needs no lock
+        oldData = data;
+    }
+
+    /** @return whether each column is stored in its own minipage, see {@link PaxPage} */
+    boolean isColumnar() {
+        return false;
+    }
+
+    /** @return a page of the same kind as this one, with the same id, read from data */
+    HeapPage withData(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
     }
 
     /**
@@ -118,7 +163,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return withData(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -127,10 +172,31 @@ public class HeapPage implements Page {
         return null;
     }
     
-    public void setBeforeImage() {
+    /**
+     * Uses the current contents as the before-image. The page is serialized
+     * once and then read from those bytes too, so the before-image shares them
+     * with the page instead of being a second copy.
+     */
+    public synchronized void setBeforeImage() {
+        byte[] res = getPageData();
+        byte[] base = data;
+        // unchanged tuples find the same bytes at the same offset in res
+        for (Tuple t : tuples)
+            if (t != null)
+                t.rebase(base, res);
+        data = res;
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = res;
+        }
+    }
+
+    /** Use the contents of image, the version of this page on disk, as the before-image */
+    void setBeforeImage(HeapPage image) {
+        byte[] data=image.getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = data;
         }
     }
 
@@ -142,40 +208,18 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    //The tuple in a slot, created the first time the slot is read
+    private Tuple getTuple(int slotno) {
+        Tuple t = tuples[slotno];
+        if (t == null) {
+            t = new Tuple(td, data, slotno, fieldBase, fieldStride);
+            t.setRecordId(new RecordId(pid, slotno));
+            tuples[slotno] = t;
         }
-
         return t;
     }
 
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -188,64 +232,39 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] res = new byte[BufferPool.getPageSize()];
+        getPageData(res);
+        return res;
+    }
 
-            // empty slot
+    /**
+     * Writes the contents of this page into res, as {@link #getPageData()}
+     * returns them, so that a caller can reuse one buffer for many pages.
+     * res must be at least BufferPool.getPageSize() bytes long.
+     */
+    public void getPageData(byte[] res) {
+        byte[] base = data;
+        for (int k=0; k<headerSize; k++)
+            res[k] = (byte) (used[k>>>3] >>> (8*(k&7)));
+
+        // tuples that are unchanged since they were read are copied as they are,
+        // then empty slots are cleared and changed tuples written over them
+        int end = headerSize + numSlots * tupleSize;
+        System.arraycopy(base, headerSize, res, headerSize, end - headerSize);
+        for (int i=0; i<numSlots; i++) {
+            Tuple t = tuples[i];
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                for (int j=0; j<fieldBase.length; j++) {
+                    int offset = fieldBase[j] + i * fieldStride[j];
+                    Arrays.fill(res, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
                 }
+            } else if (t != null && !t.isSerializedAt(base, i)) {
+                for (int j=0; j<fieldBase.length; j++)
+                    t.getField(j).serialize(res, fieldBase[j] + i * fieldStride[j]);
             }
         }
-
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        Arrays.fill(res, end, BufferPool.getPageSize(), (byte) 0);
     }
 
     /**
@@ -274,18 +293,121 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        if(!t.getTupleDesc().equals(td)||getNumEmptySlots()==0)
+        int slotno=nextFreeSlot(0);
+        if(!t.getTupleDesc().equals(td)||slotno<0)
             throw new DbException("Insert tuple error,The page is full or td mismatch");
-        for(int slotno=0;slotno<getNumTuples();slotno++){
-            if(!isSlotUsed(slotno)){
+        markSlotUsed(slotno,true);
+        //must update this tuple's RecordID
+        t.setRecordId(new RecordId(pid,slotno));
+        tuples[slotno]=t;
+    }
+
+    /**
+     * Adds the tuple on behalf of tid to the first empty slot usable accepts, and
+     * remembers the change so that it can be undone without the other transactions'.
+     * @return false if usable accepted no empty slot
+     * @throws DbException if the tupledesc is mismatch
+     */
+    public synchronized boolean insertTuple(TransactionId tid, Tuple t, IntPredicate usable) throws DbException {
+        if(!t.getTupleDesc().equals(td))
+            throw new DbException("Insert tuple error,td mismatch");
+        for(int slotno=nextFreeSlot(0);slotno>=0;slotno=nextFreeSlot(slotno+1)){
+            if(usable.test(slotno)){
                 markSlotUsed(slotno,true);
-                //must update this tuple's RecordID
                 t.setRecordId(new RecordId(pid,slotno));
                 tuples[slotno]=t;
-                return ;
+                rowChanges.computeIfAbsent(tid,k->new ArrayList<>()).add(new RowChange(slotno,null));
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Deletes the tuple on behalf of tid, and remembers it so that the delete can
+     * be undone without the other transactions' changes.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        deleteTuple(t);
+        int slotno=t.getRecordId().getTupleNumber();
+        rowChanges.computeIfAbsent(tid,k->new ArrayList<>()).add(new RowChange(slotno,getTuple(slotno)));
+    }
+
+    /** @return whether tid has uncommitted row changes on this page */
+    public synchronized boolean hasRowChanges(TransactionId tid) {
+        return rowChanges.containsKey(tid);
+    }
+
+    /** @return whether a transaction other than tid has uncommitted row changes on this page */
+    synchronized boolean hasOtherRowChanges(TransactionId tid) {
+        return rowChanges.size()>(rowChanges.containsKey(tid)?1:0);
+    }
+
+    /**
+     * Forgets tid's row changes when it commits.
+     * @return null if no other transaction has uncommitted rows on this page, so
+     *         the page itself may be written to disk; otherwise a copy of the page
+     *         without those rows, and this page stays dirty on their behalf
+     */
+    synchronized HeapPage commitRows(TransactionId tid) {
+        rowChanges.remove(tid);
+        HeapPage image=committedImage();
+        if(image!=null)
+            keepDirty(tid);
+        return image;
+    }
 
+    /**
+     * @return null if no transaction has uncommitted rows on this page, otherwise
+     *         a copy of the page without them, which is what may go to disk
+     */
+    synchronized HeapPage committedImage() {
+        if(rowChanges.isEmpty())
+            return null;
+        HeapPage image=null;
+        try {
+            image=withData(getPageData());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        for(List<RowChange> changes:rowChanges.values())
+            image.undo(changes);
+        return image;
+    }
+
+    /**
+     * Undoes tid's row changes when it aborts.
+     * @return whether other transactions still have uncommitted rows on this page,
+     *         if so the page stays dirty on their behalf
+     */
+    synchronized boolean rollbackRows(TransactionId tid) {
+        List<RowChange> changes=rowChanges.remove(tid);
+        if(changes!=null)
+            undo(changes);
+        if(rowChanges.isEmpty())
+            return false;
+        keepDirty(tid);
+        return true;
+    }
+
+    //tid completes, but the page still holds other transactions' rows: make one of
+    //them the dirtier, so the page isn't evicted and is written when it commits
+    private void keepDirty(TransactionId tid) {
+        if(dirty&&tid.equals(dirtytid))
+            dirtytid=rowChanges.keySet().iterator().next();
+    }
+
+    private void undo(List<RowChange> changes) {
+        for(int i=changes.size()-1;i>=0;i--){
+            RowChange change=changes.get(i);
+            if(change.deleted!=null)
+                tuples[change.slotno]=change.deleted;
+            markSlotUsed(change.slotno,change.deleted!=null);
+        }
     }
 
     /**
@@ -296,8 +418,6 @@ public class HeapPage implements Page {
         // some code goes here
         this.dirty=dirty;
         this.dirtytid=tid;
-        if(dirty)
-            Database.getLockManager().release_page(tid,this.pid);
     }
 
     /**
@@ -313,11 +433,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int empty=0;
-        for(int i=0;i<numSlots;i++)
-            if(!isSlotUsed(i))
-                empty++;
-        return empty;
+        return numEmpty;
     }
 
     /**
@@ -325,7 +441,38 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        return (header[i / 8] & (1 << (i % 8))) > 0;
+        return (used[i>>>6] & (1L<<i)) != 0;
+    }
+
+    //The bits of the last header word that stand for slots
+    private long lastWordMask() {
+        return numSlots%64 == 0 ? -1L : (1L<<numSlots)-1;
+    }
+
+    //The first empty slot at or after from, -1 if there is none
+    private int nextFreeSlot(int from) {
+        for (int w=from>>>6; w<used.length; w++) {
+            long free = ~used[w];
+            if (w == from>>>6)
+                free &= -1L<<from;
+            if (free != 0) {
+                int slotno = (w<<6) + Long.numberOfTrailingZeros(free);
+                return slotno < numSlots ? slotno : -1;
+            }
+        }
+        return -1;
+    }
+
+    //The first slot at or after from whose bit is set in words, -1 if there is none
+    private static int nextSetSlot(long[] words, int from) {
+        for (int w=from>>>6; w<words.length; w++) {
+            long bits = words[w];
+            if (w == from>>>6)
+                bits &= -1L<<from;
+            if (bits != 0)
+                return (w<<6) + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
     }
 
     /**
@@ -333,10 +480,15 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        if(value)
-            header[i/8] |= (1<<(i%8));
-        else
-            header[i/8] &= ~(1<<(i%8));
+        if(value==isSlotUsed(i))
+            return;
+        if(value) {
+            used[i>>>6] |= 1L<<i;
+            numEmpty--;
+        } else {
+            used[i>>>6] &= ~(1L<<i);
+            numEmpty++;
+        }
     }
 
     /**
@@ -345,11 +497,48 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        livetuples.clear();
-        for(int i=0;i<numSlots;i++)
-            if(isSlotUsed(i))
-                livetuples.add(tuples[i]);
-        return livetuples.iterator();
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page projected to columns,
+     * tuples of td.project(columns), or over the whole tuples if columns is
+     * null. Projected tuples only ever read the bytes of their own columns.
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        // the slots in use now; their tuples are created as the iterator reaches them
+        long[] slots = used.clone();
+        TupleDesc ptd = columns == null ? td : td.project(columns);
+        int[] base = new int[columns == null ? 0 : columns.length];
+        int[] stride = new int[base.length];
+        for (int k=0; k<base.length; k++) {
+            base[k] = fieldBase[columns[k]];
+            stride[k] = fieldStride[columns[k]];
+        }
+        byte[] page = data;
+        return new Iterator<Tuple>() {
+            private int next = nextSetSlot(slots, 0);
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public Tuple next() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                Tuple t;
+                if (columns == null) {
+                    t = getTuple(next);
+                } else if (tuples[next] != null) {
+                    t = tuples[next].project(ptd, columns);
+                } else {
+                    t = new Tuple(ptd, page, next, base, stride);
+                    t.setRecordId(new RecordId(pid, next));
+                }
+                next = nextSetSlot(slots, next+1);
+                return t;
+            }
+        };
     }
 }
 
@@ -44,6 +44,14 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(byte[] data, int offset) {
+        // big-endian, as DataOutputStream.writeInt
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
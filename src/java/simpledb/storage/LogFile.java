@@ -465,38 +465,47 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                raf.seek(raf.length()-8);
-                while(raf.getFilePointer()>tidToFirstLogRecord.get(tid)){
-                    long offset=raf.readLong();
-                    raf.seek(offset);
-
-                    int type=raf.readInt();
-                    switch (type){
-                        case BEGIN_RECORD:
-                            if(raf.readLong()==tid)
-                                return;
-                        case COMMIT_RECORD:
-                        case ABORT_RECORD:
-                        case CHECKPOINT_RECORD:
-                            raf.seek(offset-8);
-                            break;
-                        case UPDATE_RECORD:
-                            long tidno= raf.readLong();
-                            //we need to do roll-back for this updated record
-                            if(tidno==tid) {
-                                Page before=readPageData(raf);
-                                Page after=readPageData(raf);
-                                DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
-                                dbFile.writePage(before);
-                                Database.getBufferPool().discardPage(before.getId());
-                            }
-                            raf.seek(offset-8);
-                            break;
-                    }
+                try {
+                    undo(tid);
+                }finally {
+                    //we walked backwards through the log,the next record
+                    //(e.g. our ABORT) must still be appended at the end
+                    raf.seek(raf.length());
                 }
             }
         }
     }
+    private void undo(long tid) throws IOException {
+        raf.seek(raf.length()-8);
+        while(raf.getFilePointer()>tidToFirstLogRecord.get(tid)){
+            long offset=raf.readLong();
+            raf.seek(offset);
+
+            int type=raf.readInt();
+            switch (type){
+                case BEGIN_RECORD:
+                    if(raf.readLong()==tid)
+                        return;
+                case COMMIT_RECORD:
+                case ABORT_RECORD:
+                case CHECKPOINT_RECORD:
+                    raf.seek(offset-8);
+                    break;
+                case UPDATE_RECORD:
+                    long tidno= raf.readLong();
+                    //we need to do roll-back for this updated record
+                    if(tidno==tid) {
+                        Page before=readPageData(raf);
+                        Page after=readPageData(raf);
+                        DbFile dbFile = Database.getCatalog().getDatabaseFile(before.getId().getTableId());
+                        dbFile.writePage(before);
+                        Database.getBufferPool().discardPage(before.getId());
+                    }
+                    raf.seek(offset-8);
+                    break;
+            }
+        }
+    }
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
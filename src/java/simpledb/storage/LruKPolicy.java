@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * LRU-K replacement (O'Neil et al.). For every frame we remember the times of
+ * its last K references; the victim is the frame whose K-th most recent
+ * reference is the oldest. Frames referenced fewer than K times have an
+ * infinite backward K-distance and are evicted first, least recently used
+ * first, so pages touched once by a scan leave before pages that are reused.
+ */
+public class LruKPolicy implements EvictionPolicy {
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    //history[frame][0] is the most recent reference, history[frame][k-1] the K-th most recent
+    private final long[][] history;
+    private final int[] refCount;
+    private final boolean[] inUse;
+    private long clock;
+
+    public LruKPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    public LruKPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k        = k;
+        this.history  = new long[numPages][k];
+        this.refCount = new int[numPages];
+        this.inUse    = new boolean[numPages];
+        this.clock    = 0;
+    }
+
+    public synchronized void loaded(int frame, PageId pid) {
+        inUse[frame]    = true;
+        refCount[frame] = 0;
+        reference(frame);
+    }
+
+    public synchronized void accessed(int frame) {
+        reference(frame);
+    }
+
+    public synchronized void removed(int frame) {
+        inUse[frame]    = false;
+        refCount[frame] = 0;
+    }
+
+    private void reference(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+        if (refCount[frame] < k)
+            refCount[frame]++;
+    }
+
+    public synchronized int victim(IntPredicate evictable) {
+        int victim = -1;
+        boolean victimInfinite = false;
+        long victimTime = Long.MAX_VALUE;
+        for (int frame = 0; frame < history.length; frame++) {
+            if (!inUse[frame] || !evictable.test(frame))
+                continue;
+            boolean infinite = refCount[frame] < k;
+            //among infinite distances fall back to plain LRU
+            long time = infinite ? history[frame][0] : history[frame][k - 1];
+            if (victim == -1 || (infinite && !victimInfinite)
+                    || (infinite == victimInfinite && time < victimTime)) {
+                victim = frame;
+                victimInfinite = infinite;
+                victimTime = time;
+            }
+        }
+        return victim;
+    }
+
+    public String getName() {
+        return "LRU-" + k;
+    }
+}
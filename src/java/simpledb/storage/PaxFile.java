@@ -0,0 +1,29 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A HeapFile of PaxPages, which store each column of a page in its own
+ * minipage, for wide tables that are mostly scanned a few columns at a time.
+ * Inserts, deletes and locking work as in a HeapFile.
+ *
+ * @see PaxPage
+ * @see HeapFileEncoder#convertPax
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
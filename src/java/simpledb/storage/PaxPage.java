@@ -0,0 +1,66 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.IOException;
+
+/**
+ * A HeapPage that stores each column in its own minipage (PAX). The header is
+ * the same as a HeapPage's, and the slots hold the same tuples, but after it
+ * come the values of the first field of every slot, then those of the second
+ * field, and so on:
+ * <p>
+ *      [header][field 0 of slots 0..n-1][field 1 of slots 0..n-1]...[padding]
+ * <p>
+ * A scan that reads a few columns of a wide table, see
+ * {@link HeapPage#iterator(int[])}, then reads those minipages only, instead
+ * of stepping over every field of every tuple.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /**
+     * Lays out the page data of a HeapPage of tuples of types, e.g. as
+     * written by {@link HeapFileEncoder#convert}, as the data of a PaxPage
+     * holding the same tuples in the same slots.
+     */
+    static byte[] fromRows(byte[] rows, Type[] types) {
+        int tupleSize = 0;
+        for (Type type : types)
+            tupleSize += type.getLen();
+        int numSlots = (rows.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] res = new byte[rows.length];
+        System.arraycopy(rows, 0, res, 0, headerSize);
+        // field j starts fieldOffset bytes into each tuple, and its minipage
+        // numSlots times as far into the body of the page
+        int fieldOffset = 0;
+        for (Type type : types) {
+            int len = type.getLen();
+            for (int i=0; i<numSlots; i++)
+                System.arraycopy(rows, headerSize + i * tupleSize + fieldOffset,
+                        res, headerSize + numSlots * fieldOffset + i * len, len);
+            fieldOffset += len;
+        }
+        return res;
+    }
+
+    @Override
+    boolean isColumnar() {
+        return true;
+    }
+
+    @Override
+    HeapPage withData(byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Watches the pages a scan of a file of HeapPageIds reads, and while it reads
+ * them in order keeps the buffer pool reading the next ones ahead of it.
+ *
+ * @see BufferPool#prefetch
+ */
+class ReadAhead {
+    private final int tableId;
+    private final int numPages;
+    //the page read last, and the last page asked to be read ahead
+    private int last = -1;
+    private int requested = -1;
+
+    ReadAhead(int tableId, int numPages) {
+        this.tableId = tableId;
+        this.numPages = numPages;
+    }
+
+    /** Notes that the scan is about to read page pgNo */
+    void accessed(int pgNo) {
+        BufferPool pool = Database.getBufferPool();
+        int depth = pool.getReadAheadPages();
+        boolean sequential = pgNo == last + 1;
+        last = pgNo;
+        if (!sequential || depth <= 0) {
+            requested = pgNo;
+            return;
+        }
+        // ask for pages in batches, once the scan is halfway through the last one
+        if (requested - pgNo > depth / 2)
+            return;
+        int from = Math.max(requested, pgNo) + 1;
+        int to = Math.min(numPages - 1, pgNo + depth);
+        if (from > to)
+            return;
+        List<PageId> pids = new ArrayList<>(to - from + 1);
+        for (int i = from; i <= to; i++)
+            pids.add(new HeapPageId(tableId, i));
+        pool.prefetch(pids);
+        requested = to;
+    }
+}
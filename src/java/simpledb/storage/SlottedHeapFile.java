@@ -0,0 +1,173 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A heap file of SlottedPages, which store variable-length records, so that
+ * tables of short VARSTRING_TYPE values take fewer pages than a HeapFile,
+ * which gives every string its maximum length.
+ * <p>
+ * Unlike HeapFile, a SlottedHeapFile locks whole pages for inserts and
+ * deletes, since a record may grow into the space of a deleted one.
+ *
+ * @see SlottedPage
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedHeapFile implements DbFile {
+
+    private final File      file;
+    private final TupleDesc schema;
+    private final DbFileChannel channel;
+    //The pages with room for the largest record, built on the first insert
+    private volatile FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        file=f;
+        schema=td;
+        channel=new DbFileChannel(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return schema;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        long offset = (long) BufferPool.getPageSize()*pid.getPageNumber();
+        try {
+            // a page past the end of the file reads as zeros, i.e. empty
+            byte[] data = new byte[BufferPool.getPageSize()];
+            channel.read(data,offset);
+            SlottedPage page = new SlottedPage((HeapPageId)pid,data);
+            noteFreeSpace(page);
+            return page;
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        long offset = (long) BufferPool.getPageSize()*page.getId().getPageNumber();
+        try {
+            channel.write(page.getPageData(),offset);
+            noteFreeSpace((SlottedPage) page);
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this SlottedHeapFile.
+     */
+    public int numPages() {
+        return (int) ((file.length()+BufferPool.getPageSize()-1)/BufferPool.getPageSize());
+    }
+
+    //A page has room if the largest record of the table fits, whatever its strings
+    private boolean hasRoom(int free) {
+        return free>=schema.getSize()+SlottedPage.SLOT_SIZE;
+    }
+
+    //The free-space map, built on first use from the slot directory of each page on disk
+    private FreeSpaceMap freeSpace() throws IOException {
+        FreeSpaceMap fsm=freeSpace;
+        if(fsm!=null)
+            return fsm;
+        synchronized(this) {
+            if(freeSpace==null) {
+                fsm=new FreeSpaceMap();
+                byte[] data=new byte[BufferPool.getPageSize()];
+                for(int pgNo=0;pgNo<numPages();pgNo++){
+                    Arrays.fill(data,(byte)0);
+                    channel.read(data,(long) BufferPool.getPageSize()*pgNo);
+                    fsm.update(pgNo,hasRoom(SlottedPage.freeSpace(data)));
+                }
+                freeSpace=fsm;
+            }
+            return freeSpace;
+        }
+    }
+
+    private void noteFreeSpace(SlottedPage page) {
+        FreeSpaceMap fsm=freeSpace;
+        if(fsm!=null)
+            fsm.update(page.getId().getPageNumber(),hasRoom(page.getFreeSpace()));
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if(SlottedPage.spaceFor(t)+SlottedPage.HEADER_SIZE>BufferPool.getPageSize())
+            throw new DbException("Insert tuple error,the tuple doesn't fit on a page");
+        SlottedPage page=null;
+        FreeSpaceMap fsm=freeSpace();
+        for(int pgNo=fsm.nextFree(0);pgNo>=0&&pgNo<numPages();pgNo=fsm.nextFree(pgNo+1)){
+            HeapPageId pid=new HeapPageId(getId(),pgNo);
+            // a lock held before this scan may guard earlier work, keep it until commit
+            boolean held=Database.getLockManager().holdsLock(tid,pid);
+            page=(SlottedPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
+            boolean fits=page.fits(t);
+            if(fits)
+                page.insertTuple(t);
+            noteFreeSpace(page);
+            if(fits)
+                return new ArrayList<>(Collections.singletonList(page));
+            if(!held)
+                Database.getLockManager().release_page(tid, page.getId());
+            Database.getBufferPool().unpinPage(tid, page.getId());
+        }
+        // no page has room, append an empty one
+        SlottedPage new_page = new SlottedPage(new HeapPageId(getId(),numPages()),SlottedPage.createEmptyPageData());
+        writePage(new_page);
+        page=(SlottedPage)Database.getBufferPool().getPage(tid,new_page.getId(),Permissions.READ_WRITE);
+        page.insertTuple(t);
+        noteFreeSpace(page);
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        SlottedPage page=(SlottedPage)Database.getBufferPool().getPage(tid,t.getRecordId().getPageId(),Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        noteFreeSpace(page);
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HeapFileIterator(tid,getId(),numPages());
+    }
+}
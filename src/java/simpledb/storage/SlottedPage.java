@@ -0,0 +1,256 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A page of a SlottedHeapFile, holding variable-length records. The format is
+ * <p>
+ *      [number of slots: 2 bytes][slot directory][free space][records]
+ * <p>
+ * where each slot directory entry is the offset and length of a record, 2
+ * bytes each, and an empty slot has offset 0. Records are packed at the end
+ * of the page. A record is its fields one after another: VARSTRING_TYPE
+ * fields take 4 bytes of length and then their characters, other fields
+ * their usual fixed size. Offsets are unsigned 16-bit numbers, so pages are
+ * at most 64KB.
+ * <p>
+ * Slots keep their number while the page is in use, so RecordIds stay
+ * valid; records are repacked each time the page is written.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements Page, Iterable<Tuple> {
+
+    static final int HEADER_SIZE = 2;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    //The tuple in each slot, null if the slot is empty
+    final List<Tuple> slots = new ArrayList<>();
+    //the bytes the slot directory and the records take
+    private int usedBytes;
+    byte[] oldData;
+    Boolean dirty=false;
+    TransactionId dirtytid;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int numSlots = readShort(data, 0);
+        usedBytes = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i=0; i<numSlots; i++) {
+            int offset = readShort(data, HEADER_SIZE + i * SLOT_SIZE);
+            int length = readShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+            if (offset == 0) {
+                slots.add(null);
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            for (int j=0; j<td.numFields(); j++) {
+                Field f = td.getFieldType(j).parse(data, offset);
+                t.setField(j, f);
+                offset += td.getFieldType(j).getLen(f);
+            }
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            usedBytes += length;
+        }
+        // the page isn't shared yet, so this needs no lock
+        oldData = data;
+    }
+
+    /**
+     * @return the bytes of an empty page, used to add new pages to the file
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //no slots
+    }
+
+    /**
+     * Lays out tuples as the page data of a SlottedPage, the tuple in slot i
+     * at tuples.get(i) and null for an empty slot.
+     */
+    static byte[] createPageData(List<Tuple> tuples, int pageSize) {
+        byte[] res = new byte[pageSize];
+        writeShort(res, 0, tuples.size());
+        int end = res.length;
+        for (int i=0; i<tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            if (t == null)
+                continue;
+            int length = recordLength(t);
+            end -= length;
+            writeShort(res, HEADER_SIZE + i * SLOT_SIZE, end);
+            writeShort(res, HEADER_SIZE + i * SLOT_SIZE + 2, length);
+            int offset = end;
+            for (int j=0; j<t.getTupleDesc().numFields(); j++) {
+                Type type = t.getTupleDesc().getFieldType(j);
+                Field f = t.getField(j);
+                if (type == Type.VARSTRING_TYPE)
+                    ((StringField) f).serializeValue(res, offset);
+                else
+                    f.serialize(res, offset);
+                offset += type.getLen(f);
+            }
+        }
+        return res;
+    }
+
+    /** @return the bytes t takes on a page, including its slot directory entry */
+    static int spaceFor(Tuple t) {
+        return recordLength(t) + SLOT_SIZE;
+    }
+
+    private static int recordLength(Tuple t) {
+        int length = 0;
+        for (int j=0; j<t.getTupleDesc().numFields(); j++)
+            length += t.getTupleDesc().getFieldType(j).getLen(t.getField(j));
+        return length;
+    }
+
+    /** @return the free bytes of the page in data, without reading its records */
+    static int freeSpace(byte[] data) {
+        int numSlots = readShort(data, 0);
+        int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i=0; i<numSlots; i++)
+            used += readShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+        return data.length - used;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] data = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = data;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, in the
+     * format the constructor reads.
+     */
+    public synchronized byte[] getPageData() {
+        return createPageData(slots, BufferPool.getPageSize());
+    }
+
+    /** @return the number of bytes free for records and their slots */
+    public synchronized int getFreeSpace() {
+        return BufferPool.getPageSize() - usedBytes;
+    }
+
+    /** @return whether t fits on this page */
+    public synchronized boolean fits(Tuple t) {
+        int space = spaceFor(t);
+        // an empty slot is reused instead of adding one to the directory
+        if (slots.contains(null))
+            space -= SLOT_SIZE;
+        return space <= getFreeSpace();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in an empty slot if there is one;
+     * the tuple is updated to reflect that it is now stored on this page.
+     * @throws DbException if the tuple doesn't fit on the page or tupledesc
+     *         is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if(!t.getTupleDesc().equals(td)||!fits(t))
+            throw new DbException("Insert tuple error,The page is full or td mismatch");
+        int slotno=slots.indexOf(null);
+        if(slotno<0) {
+            slotno=slots.size();
+            slots.add(null);
+            usedBytes+=SLOT_SIZE;
+        }
+        t.setRecordId(new RecordId(pid,slotno));
+        slots.set(slotno,t);
+        usedBytes+=recordLength(t);
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid=t.getRecordId();
+        if(rid==null||!rid.getPageId().equals(pid)||rid.getTupleNumber()>=slots.size()
+                ||slots.get(rid.getTupleNumber())==null)
+            throw new DbException("Delete tuple error,The tuple is not exist");
+        usedBytes-=recordLength(slots.set(rid.getTupleNumber(),null));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty=dirty;
+        this.dirtytid=tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty?dirtytid:null;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, as they were when it was called
+     * (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        List<Tuple> tuples = new ArrayList<>(slots.size());
+        for (Tuple t : slots)
+            if (t != null)
+                tuples.add(t);
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+}
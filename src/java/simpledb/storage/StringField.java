@@ -4,6 +4,7 @@ import simpledb.common.Type;
 import simpledb.execution.Predicate;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -14,6 +15,7 @@ public class StringField implements Field {
 
 	private final String value;
 	private final int maxSize;
+	private final Type type;
 
 	public String getValue() {
 		return value;
@@ -28,7 +30,19 @@ public class StringField implements Field {
 	 *            The maximum size of this string
 	 */
 	public StringField(String s, int maxSize) {
+		this(s, maxSize, Type.STRING_TYPE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param type
+	 *            STRING_TYPE, or VARSTRING_TYPE for a string stored with its
+	 *            real length where the file format allows it
+	 */
+	public StringField(String s, int maxSize, Type type) {
 		this.maxSize = maxSize;
+		this.type = type;
 
 		if (s.length() > maxSize)
 			value = s.substring(0, maxSize);
@@ -69,6 +83,33 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into data at offset, in the same maxSize + 4 bytes
+	 * serialize(DataOutputStream) writes.
+	 */
+	public void serialize(byte[] data, int offset) {
+		int len = serializeValue(data, offset);
+		Arrays.fill(data, offset + 4 + len, offset + 4 + maxSize, (byte) 0);
+	}
+
+	/**
+	 * Write the length and characters of this string into data at offset,
+	 * without the padding, as records with variable-length strings store it.
+	 * 
+	 * @return the length of the string written
+	 */
+	int serializeValue(byte[] data, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		data[offset] = (byte) (len >>> 24);
+		data[offset + 1] = (byte) (len >>> 16);
+		data[offset + 2] = (byte) (len >>> 8);
+		data[offset + 3] = (byte) len;
+		// the low byte of each char, as DataOutputStream.writeBytes
+		for (int i = 0; i < len; i++)
+			data[offset + 4 + i] = (byte) value.charAt(i);
+		return len;
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -113,6 +154,6 @@ public class StringField implements Field {
 	 */
 	public Type getType() {
 
-		return Type.STRING_TYPE;
+		return type;
 	}
 }
@@ -1,5 +1,7 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -17,6 +19,13 @@ public class Tuple implements Serializable {
     private TupleDesc   schema;
     private List<Field> fields;
     private RecordId        id;
+    //The page this tuple was read from, fields are decoded from it the first
+    //time they are read. Null once a field has been changed. Field i of the
+    //tuple in slot s is at fieldBase[i]+s*fieldStride[i]
+    private transient byte[] source;
+    private transient int    slot;
+    private transient int[]  fieldBase;
+    private transient int[]  fieldStride;
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -31,6 +40,72 @@ public class Tuple implements Serializable {
         fields = Arrays.asList(new Field[td.length]);
     }
 
+    /**
+     * Create a tuple whose fields are decoded from the tuple in slot of the
+     * page data only when they are first read, e.g. by a predicate on one
+     * column. data must not change afterwards.
+     *
+     * @param fieldBase the offset of each field of slot 0 in data
+     * @param fieldStride how far each field moves from one slot to the next,
+     *            the tuple size if tuples are stored one after another
+     */
+    Tuple(TupleDesc td, byte[] data, int slot, int[] fieldBase, int[] fieldStride) {
+        this(td);
+        this.source      = data;
+        this.slot        = slot;
+        this.fieldBase   = fieldBase;
+        this.fieldStride = fieldStride;
+    }
+
+    /**
+     * @return a tuple of td, a projection of this tuple's TupleDesc, holding
+     *         this tuple's fields at columns; fields not read yet are decoded
+     *         only when they are read from it
+     * @see TupleDesc#project
+     */
+    public Tuple project(TupleDesc td, int[] columns) {
+        Tuple t;
+        if(source!=null){
+            int[] base=new int[columns.length];
+            int[] stride=new int[columns.length];
+            for(int i=0;i<columns.length;i++){
+                base[i]=fieldBase[columns[i]];
+                stride[i]=fieldStride[columns[i]];
+            }
+            t=new Tuple(td,source,slot,base,stride);
+        }else{
+            t=new Tuple(td);
+            for(int i=0;i<columns.length;i++)
+                t.fields.set(i,fields.get(columns[i]));
+        }
+        t.setRecordId(id);
+        return t;
+    }
+
+    /** @return whether this tuple is unchanged since it was read from slot of data */
+    boolean isSerializedAt(byte[] data, int slot) {
+        return source == data && this.slot == slot;
+    }
+
+    //Read the fields not decoded yet from to instead of from, which holds the same bytes
+    void rebase(byte[] from, byte[] to) {
+        if(source==from)
+            source=to;
+    }
+
+    //Decode the fields that haven't been read yet
+    private void decodeAll() {
+        if(source==null)
+            return;
+        for(int i=0;i<fields.size();i++)
+            getField(i);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
     public static Tuple concat(Tuple tp1,Tuple tp2){
         TupleDesc td=TupleDesc.merge(tp1.getTupleDesc(),tp2.getTupleDesc());
         Tuple     tp=new Tuple(td);
@@ -83,6 +158,8 @@ public class Tuple implements Serializable {
         // some code goes here
         if(i<0||i>schema.length-1)
             return;
+        decodeAll();
+        source=null;
         fields.set(i,f);
     }
 
@@ -95,7 +172,12 @@ public class Tuple implements Serializable {
     public Field getField(int i) {
         // some code goes here
         assert i>=0&&i<schema.length;
-        return fields.get(i);
+        Field f=fields.get(i);
+        if(f==null&&source!=null){
+            f=schema.getFieldType(i).parse(source,fieldBase[i]+slot*fieldStride[i]);
+            fields.set(i,f);
+        }
+        return f;
     }
 
     /**
@@ -107,6 +189,7 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
+        decodeAll();
         StringBuilder sb = new StringBuilder();
         for(Field field:fields){
             sb.append(field.toString());
@@ -122,6 +205,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        decodeAll();
         return fields.iterator();
     }
 
@@ -131,6 +215,7 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        decodeAll();
         schema = td;
     }
 }
@@ -199,6 +199,19 @@ public class TupleDesc implements Serializable {
         String[] nameAr = nameList.toArray(new String[0]);
         return new TupleDesc(typeAr,nameAr);
     }
+    /**
+     * @return a TupleDesc of the fields of this one at columns, in that order
+     */
+    public TupleDesc project(int[] columns) {
+        Type[] typeAr = new Type[columns.length];
+        String[] nameAr = new String[columns.length];
+        for(int i=0;i<columns.length;i++){
+            typeAr[i] = getFieldType(columns[i]);
+            nameAr[i] = getFieldName(columns[i]);
+        }
+        return new TupleDesc(typeAr,nameAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
@@ -0,0 +1,85 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Scan resistant 2Q replacement (Johnson and Shasha). Newly loaded pages
+ * enter the FIFO queue A1in; only a page that is requested again after it
+ * left A1in (remembered by id in the ghost queue A1out) is promoted to the
+ * LRU queue Am. A long sequential scan therefore only churns A1in and
+ * leaves the hot pages in Am alone.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+    private final PageId[] pids;
+    //resident frames, oldest first
+    private final LinkedHashSet<Integer> a1in = new LinkedHashSet<>();
+    //resident frames, least recently used first
+    private final LinkedHashSet<Integer> am   = new LinkedHashSet<>();
+    //ids of pages recently evicted from a1in, oldest first
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final int kin;
+    private final int kout;
+
+    public TwoQueuePolicy(int numPages) {
+        //the sizes recommended in the paper: 25% of the pool for A1in, 50% for A1out
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    public TwoQueuePolicy(int numPages, int kin, int kout) {
+        this.pids = new PageId[numPages];
+        this.kin  = kin;
+        this.kout = kout;
+    }
+
+    public synchronized void loaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        if (a1out.remove(pid))
+            am.add(frame);
+        else
+            a1in.add(frame);
+    }
+
+    public synchronized void accessed(int frame) {
+        //hits in a1in are correlated references and don't change anything
+        if (am.remove(frame))
+            am.add(frame);
+    }
+
+    public synchronized void removed(int frame) {
+        if (a1in.remove(frame) && pids[frame] != null) {
+            a1out.add(pids[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        am.remove(frame);
+        pids[frame] = null;
+    }
+
+    public synchronized int victim(IntPredicate evictable) {
+        int victim = -1;
+        if (a1in.size() > kin || am.isEmpty())
+            victim = first(a1in, evictable);
+        if (victim == -1)
+            victim = first(am, evictable);
+        if (victim == -1)
+            victim = first(a1in, evictable);
+        return victim;
+    }
+
+    private static int first(LinkedHashSet<Integer> queue, IntPredicate evictable) {
+        for (int frame : queue) {
+            if (evictable.test(frame))
+                return frame;
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return "2Q";
+    }
+}
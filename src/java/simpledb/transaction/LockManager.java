@@ -1,180 +1,567 @@
 package simpledb.transaction;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
 import simpledb.common.Permissions;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-class PageId_Lock{
-    public PageId pageId;
-    public Permissions permissions;
-    public PageId_Lock(PageId pageId, Permissions permissions){
-        this.pageId=pageId;
-        this.permissions=permissions;
+//A lock request that could not be granted yet, it waits on its own condition
+class LockRequest{
+    public final TransactionId tid;
+    public final LockMode mode;
+    public final Condition granted_cond;
+    public boolean granted=false;
+    //set when the deadlock detector picks this transaction as the victim
+    public boolean aborted=false;
+    public LockRequest(TransactionId tid, LockMode mode, Condition granted_cond){
+        this.tid=tid;
+        this.mode=mode;
+        this.granted_cond=granted_cond;
     }
 }
-class Tid_Lock{
-    public TransactionId tid;
-    public Permissions permissions;
-    public Tid_Lock(TransactionId tid, Permissions permissions){
-        this.tid=tid;
-        this.permissions=permissions;
+//The lock state of one table, page or row: the group of transactions holding
+//compatible locks and the FIFO queue of requests waiting for it
+class LockQueue{
+    public final Map<TransactionId,LockMode> granted=new HashMap<>();
+    //how many transactions hold each mode, indexed by ordinal
+    public final int[] modes=new int[LockMode.values().length];
+    public final Deque<LockRequest> waiting=new ArrayDeque<>();
+}
+//The lock key of a whole table, distinct from any PageId or RecordId
+class TableKey{
+    private final int tableId;
+    public TableKey(int tableId){
+        this.tableId=tableId;
+    }
+    //The table a page or row lock belongs to, null for a table lock
+    public static TableKey of(Object key){
+        if(key instanceof PageId)
+            return new TableKey(((PageId)key).getTableId());
+        if(key instanceof RecordId)
+            return new TableKey(((RecordId)key).getPageId().getTableId());
+        return null;
+    }
+    @Override
+    public boolean equals(Object o){
+        return o instanceof TableKey&&((TableKey)o).tableId==tableId;
+    }
+    @Override
+    public int hashCode(){
+        return tableId;
     }
 }
 
+/**
+ * LockManager implements strict two-phase locking with multi-granularity
+ * locks on tables, pages and rows, in the {@link LockMode}s IS, IX, S, SIX
+ * and X. BufferPool.getPage locks pages in S (READ_ONLY) or X (READ_WRITE)
+ * mode; HeapFile updates take IX on the table and the page and X on the row,
+ * so that transactions updating different rows of a page don't block each other.
+ * <p>
+ * Locking a page or a row first locks its table in the matching intention
+ * mode (IS or IX), unless a table lock the transaction holds already covers
+ * it, in which case no page or row lock is taken at all. Once a transaction
+ * holds more page locks in one table than the escalation threshold, its
+ * table lock is escalated to S (if it only read) or X, and its page and row
+ * locks there are released, so a large scan costs one lock instead of one per
+ * page. Escalation never waits: if other transactions hold conflicting
+ * table locks, the transaction keeps its page locks and tries again at its
+ * next page.
+ * <p>
+ * A request that conflicts with the locks already granted on an object, or that
+ * would overtake an earlier waiter, joins the object's FIFO wait queue and
+ * blocks on its own condition. Releasing a lock grants the longest compatible
+ * prefix of the queue and wakes exactly those waiters. A lock upgrade asks for
+ * the combination of the held and the requested mode, and jumps to the front
+ * of the queue.
+ * <p>
+ * Deadlocks are handled according to the {@link DeadlockPolicy}. With
+ * DETECT, the waits-for graph is maintained incrementally: whenever a page's
+ * lock state changes, only the edges of that object's waiters are recomputed.
+ * Deadlocks are detected when a request starts to wait, by searching the graph
+ * for a cycle through the new waiter; one transaction on the cycle is then
+ * aborted, chosen by the {@link VictimPolicy}. WAIT_DIE and WOUND_WAIT prevent
+ * deadlocks instead, by comparing the age (TransactionId order) of a waiter
+ * with each transaction it would wait for, and keep no graph at all.
+ */
 public class LockManager{
-    //This map records all locks owned by a specific transaction
-    private final Map<TransactionId, CopyOnWriteArrayList<PageId_Lock>> Transaction2page;
-    //This map records all transactions that have a shared lock on a specific page
-    //or single transaction that have an exclusive lock on a specific page
-    private final Map<PageId,CopyOnWriteArrayList<Tid_Lock>> Page2Transaction;
+    /** Page locks a transaction may hold in one table before they are escalated to a table lock */
+    public static final int DEFAULT_ESCALATION_THRESHOLD=128;
+    /** How deadlocks are avoided or resolved */
+    public enum DeadlockPolicy{
+        /** let transactions wait freely, and abort a victim when a cycle is found */
+        DETECT,
+        /** an older transaction may wait for a younger one, a younger one is aborted instead of waiting */
+        WAIT_DIE,
+        /** an older transaction aborts(wounds) the younger ones it would wait for, a younger one waits */
+        WOUND_WAIT
+    }
+    /** How to choose the transaction to abort when a deadlock is found */
+    public enum VictimPolicy{
+        /** abort the transaction that started last */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks */
+        FEWEST_LOCKS,
+        /** abort the transaction that has done the least work, i.e. holds the fewest
+         *  exclusive locks on the rows and pages it wrote */
+        LEAST_WORK
+    }
+    //This map records all locks owned by a specific transaction, keyed by
+    //PageId, RecordId or TableKey
+    private final Map<TransactionId, Map<Object,LockMode>> Transaction2lock;
+    //This map records the granted group and the wait queue of each locked object
+    private final Map<Object,LockQueue> Lock2Transaction;
+    //The request each blocked transaction is waiting on
+    private final Map<TransactionId,LockRequest> waitingRequests;
+    //The waits-for graph: the transactions each blocked transaction waits for
+    private final Map<TransactionId,Set<TransactionId>> waitsFor;
+    //Transactions wounded by an older one, they abort at their next lock request
+    private final Set<TransactionId> wounded;
+    //The number of page locks each transaction holds in each table
+    private final Map<TransactionId,Map<TableKey,Integer>> pageLocks;
+    private final ReentrantLock latch=new ReentrantLock();
+    private volatile DeadlockPolicy deadlockPolicy;
+    private volatile VictimPolicy victimPolicy;
+    private volatile int escalationThreshold=DEFAULT_ESCALATION_THRESHOLD;
     public LockManager(){
-        Transaction2page = new HashMap<>();
-        Page2Transaction = new HashMap<>();
+        this(DeadlockPolicy.DETECT,VictimPolicy.YOUNGEST);
+    }
+    public LockManager(VictimPolicy victimPolicy){
+        this(DeadlockPolicy.DETECT,victimPolicy);
+    }
+    public LockManager(DeadlockPolicy deadlockPolicy,VictimPolicy victimPolicy){
+        Transaction2lock = new HashMap<>();
+        Lock2Transaction = new HashMap<>();
+        waitingRequests  = new HashMap<>();
+        waitsFor         = new HashMap<>();
+        wounded          = new HashSet<>();
+        pageLocks        = new HashMap<>();
+        this.deadlockPolicy=deadlockPolicy;
+        this.victimPolicy=victimPolicy;
+    }
+    public DeadlockPolicy getDeadlockPolicy(){
+        return deadlockPolicy;
+    }
+    /**
+     * Switch between deadlock detection and prevention. Only call this while
+     * no transaction holds or waits for a lock.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy deadlockPolicy){
+        latch.lock();
+        try {
+            this.deadlockPolicy=deadlockPolicy;
+            waitsFor.clear();
+            wounded.clear();
+        }finally {
+            latch.unlock();
+        }
+    }
+    public VictimPolicy getVictimPolicy(){
+        return victimPolicy;
+    }
+    public void setVictimPolicy(VictimPolicy victimPolicy){
+        this.victimPolicy=victimPolicy;
+    }
+    public int getEscalationThreshold(){
+        return escalationThreshold;
+    }
+    /** Set how many page locks in one table a transaction may hold before they are escalated, Integer.MAX_VALUE disables escalation */
+    public void setEscalationThreshold(int escalationThreshold){
+        this.escalationThreshold=escalationThreshold;
     }
     /**
-     * This method is called by a transaction to acquire a lock on a page
-     * If this page can be granted, then return true, otherwise return false
+     * This method is called by a transaction to acquire a lock on a page.
+     * It blocks until the lock is granted.
+     * @throws TransactionAbortedException if the transaction is chosen as the
+     *         victim of a deadlock, dies or is wounded under a prevention policy,
+     *         or the thread is interrupted while waiting
      * */
-     public synchronized boolean AcquireLock(TransactionId tid,PageId pid,Permissions perm){
-//        System.out.println("Thread_"+Thread.currentThread().getId()+" Try to acquire lock");
-        //First we need to check whether the Transaction has a lock on the page
-        if(Transaction2page.get(tid)!=null){
-            for(PageId_Lock pageId_lock:Transaction2page.get(tid)){
-                if(pageId_lock.pageId.equals(pid)){
-                    //If the transaction already has the lock on the page,do nothing
-                    if(pageId_lock.permissions==perm)
-                        return true;
-                    else if(pageId_lock.permissions==Permissions.READ_WRITE&&perm==Permissions.READ_ONLY){
-                        //we just degrade the lock
-                        Page2Transaction.get(pid).get(0).permissions=perm;
-                        pageId_lock.permissions=perm;
-                        return true;
-                    }
-                }
+    public void acquireLock(TransactionId tid,PageId pid,Permissions perm) throws TransactionAbortedException {
+        lock(tid,pid,LockMode.of(perm));
+    }
+    /** Acquire a lock on a page in any mode, e.g. IX before locking one of its rows */
+    public void acquireLock(TransactionId tid,PageId pid,LockMode mode) throws TransactionAbortedException {
+        lock(tid,pid,mode);
+    }
+    /** Acquire a lock on a row, the caller must hold the intention lock on its page */
+    public void acquireLock(TransactionId tid,RecordId rid,LockMode mode) throws TransactionAbortedException {
+        lock(tid,rid,mode);
+    }
+    /** Acquire a lock on a whole table */
+    public void acquireTableLock(TransactionId tid,int tableId,LockMode mode) throws TransactionAbortedException {
+        lock(tid,new TableKey(tableId),mode);
+    }
+    /**
+     * Acquire a lock on a row only if that doesn't have to wait
+     * @return whether the lock was granted
+     */
+    public boolean tryAcquireLock(TransactionId tid,RecordId rid,LockMode mode){
+        latch.lock();
+        try {
+            if(coveredByTable(tid,rid,mode))
+                return true;
+            LockQueue queue=Lock2Transaction.computeIfAbsent(rid,k->new LockQueue());
+            LockMode held=queue.granted.get(tid);
+            if(held!=null&&held.covers(mode))
+                return true;
+            if(tryGrant(queue,tid,rid,held==null?mode:held.combine(mode)))
+                return true;
+            if(queue.granted.isEmpty()&&queue.waiting.isEmpty())
+                Lock2Transaction.remove(rid);
+            return false;
+        }finally {
+            latch.unlock();
+        }
+    }
+    private void lock(TransactionId tid,Object key,LockMode mode) throws TransactionAbortedException {
+        latch.lock();
+        try {
+            if(wounded.contains(tid)) {
+                throw new TransactionAbortedException();
             }
+            TableKey table=TableKey.of(key);
+            if(table!=null) {
+                if(coveredByTable(tid,key,mode))
+                    return;
+                //the hierarchy requires the intention lock on the table first
+                acquire(tid,table,mode.intention());
+            }
+            acquire(tid,key,mode);
+            if(key instanceof PageId)
+                escalate(tid,table);
+        }finally {
+            latch.unlock();
         }
-        if(Page2Transaction.get(pid)!=null){
-            for(Tid_Lock tid_lock:Page2Transaction.get(pid)){
-                //other transaction have exclusive-lock
-                if(tid_lock.permissions==Permissions.READ_WRITE)
-                    return false;
-                //Acquire a exclusive lock
-                if(perm==Permissions.READ_WRITE){
-                    //other transaction have a lock
-                    if(!tid_lock.tid.equals(tid))
-                        return false;
-                    else{
-                        if(Page2Transaction.get(pid).size()==1){
-                            //Only the transaction have a read-lock
-                            //just upgrade it
-                            Page2Transaction.get(pid).get(0).permissions=perm;
-                            for(PageId_Lock pageId_lock:Transaction2page.get(tid)){
-                                if(pageId_lock.pageId.equals(pid)){
-                                    pageId_lock.permissions=perm;
-                                }
-                            }
-                            return true;
-                        }else{
-                            //other transaction have a lock
-                            return false;
-                        }
-                    }
-                }
+    }
+    //Does a table lock tid holds already lock this page or row in this mode?
+    private boolean coveredByTable(TransactionId tid,Object key,LockMode mode){
+        Map<Object,LockMode> locks=Transaction2lock.get(tid);
+        LockMode table=locks==null?null:locks.get(TableKey.of(key));
+        return table!=null&&table.coversChild(mode);
+    }
+    //Replace tid's page and row locks in a table by one table lock once it holds too
+    //many of them, if that can be granted without waiting
+    private void escalate(TransactionId tid,TableKey table){
+        Map<TableKey,Integer> counts=pageLocks.get(tid);
+        if(counts==null||counts.getOrDefault(table,0)<=escalationThreshold)
+            return;
+        LockQueue queue=Lock2Transaction.get(table);
+        LockMode held=queue.granted.get(tid);
+        //a reader only needs S, a transaction that updates the table needs X
+        if(!tryGrant(queue,tid,table,held.combine(held==LockMode.IS?LockMode.S:LockMode.X)))
+            return;
+        Map<Object,LockMode> locks=Transaction2lock.get(tid);
+        for(Object key:new ArrayList<>(locks.keySet())){
+            if(table.equals(TableKey.of(key))){
+                locks.remove(key);
+                unlock(Lock2Transaction.get(key),tid,key);
             }
-            //Acquire a shared-lock
-            Page2Transaction.get(pid).add(new Tid_Lock(tid,perm));
-            Transaction2page.computeIfAbsent(tid, k -> new CopyOnWriteArrayList<>()).add(new PageId_Lock(pid,perm));
-            return true;
-        }else{
-            //This page is not locked by any transaction
-            Page2Transaction.put(pid,new CopyOnWriteArrayList<>());
-            Page2Transaction.get(pid).add(new Tid_Lock(tid,perm));
-            Transaction2page.computeIfAbsent(tid, k -> new CopyOnWriteArrayList<>()).add(new PageId_Lock(pid,perm));
-            return true;
         }
     }
-    //A transaction release its lock on a page
-     public synchronized void release_page(TransactionId tid,PageId pid){
-         if(Page2Transaction.get(pid)==null)
-             return;
-         if(Transaction2page.get(tid)==null)
-             return;
-        Page2Transaction.get(pid).removeIf(tid_lock -> tid_lock.tid.equals(tid));
-        Transaction2page.get(tid).removeIf(pid_lock -> pid_lock.pageId.equals(pid));
-    }
-    //check if a transaction holds a lock on a page
-     public synchronized boolean holdsLock(TransactionId tid,PageId pid){
-        if(Transaction2page.get(tid)==null)
+    //Acquire one lock, waiting in its queue if necessary
+    private void acquire(TransactionId tid,Object key,LockMode mode) throws TransactionAbortedException {
+        LockQueue queue=Lock2Transaction.computeIfAbsent(key,k->new LockQueue());
+        LockMode held=queue.granted.get(tid);
+        //If the transaction already has the lock(or a stronger one),do nothing
+        if(held!=null&&held.covers(mode))
+            return;
+        boolean upgrade=held!=null;
+        if(upgrade)
+            mode=held.combine(mode);
+        if(tryGrant(queue,tid,key,mode))
+            return;
+        LockRequest request=new LockRequest(tid,mode,latch.newCondition());
+        if(upgrade)
+            queue.waiting.addFirst(request);
+        else
+            queue.waiting.addLast(request);
+        waitingRequests.put(tid,request);
+        try {
+            if(deadlockPolicy==DeadlockPolicy.DETECT) {
+                updateEdges(queue);
+                //the new edges may close several cycles, and aborting another
+                //transaction only breaks the ones through it
+                List<TransactionId> cycle;
+                while(!request.aborted&&(cycle=find_cycle(tid))!=null)
+                    abort(chooseVictim(cycle));
+            }else {
+                for(TransactionId blocker:blockers(queue,request))
+                    prevent(tid,blocker);
+                //an upgrade jumped ahead of the other waiters
+                if(upgrade)
+                    for(LockRequest waiter:queue.waiting)
+                        if(waiter!=request)
+                            prevent(waiter.tid,tid);
+            }
+            while(!request.granted&&!request.aborted)
+                request.granted_cond.await();
+            if(!request.granted) {
+                throw new TransactionAbortedException();
+            }
+        }catch (InterruptedException e){
+            throw new TransactionAbortedException();
+        }finally {
+            waitingRequests.remove(tid);
+            waitsFor.remove(tid);
+            if(!request.granted) {
+                queue.waiting.remove(request);
+                //we may have been the head blocking compatible requests behind us
+                grantWaiters(queue,key);
+            }
+        }
+    }
+    //Grant the lock at once if it is compatible and doesn't overtake a waiter. Nobody
+    //may overtake a waiter, except an upgrade, which must run first or it would wait
+    //for itself
+    private boolean tryGrant(LockQueue queue,TransactionId tid,Object key,LockMode mode){
+        if(!(queue.granted.containsKey(tid)||queue.waiting.isEmpty())||!compatible(queue,tid,mode))
             return false;
-        for(PageId_Lock pageId_lock:Transaction2page.get(tid)){
-            if(pageId_lock.pageId == pid)
-                return true;
+        grant(queue,tid,key,mode);
+        //an upgrade may now block the waiters
+        if(!queue.waiting.isEmpty()) {
+            if(deadlockPolicy==DeadlockPolicy.DETECT)
+                updateEdges(queue);
+            else
+                for(LockRequest waiter:queue.waiting)
+                    prevent(waiter.tid,tid);
         }
-        return false;
+        return true;
     }
-    //release all locks on a page
-     public synchronized void release_page(PageId pid){
-        if(Page2Transaction.get(pid)==null)
+    //Can tid be granted a lock in this mode given the locks other transactions hold?
+    //Only the per-mode counts are checked, not the holders
+    private boolean compatible(LockQueue queue,TransactionId tid,LockMode mode){
+        LockMode held=queue.granted.get(tid);
+        for(LockMode other:LockMode.values()){
+            int holders=queue.modes[other.ordinal()]-(other==held?1:0);
+            if(holders>0&&!mode.isCompatibleWith(other))
+                return false;
+        }
+        return true;
+    }
+    //Record the lock in both maps, an upgrade just overwrites the weaker lock
+    private void grant(LockQueue queue,TransactionId tid,Object key,LockMode mode){
+        LockMode held=queue.granted.put(tid,mode);
+        if(held!=null)
+            queue.modes[held.ordinal()]--;
+        else if(key instanceof PageId)
+            pageLocks.computeIfAbsent(tid,k->new HashMap<>()).merge(TableKey.of(key),1,Integer::sum);
+        queue.modes[mode.ordinal()]++;
+        Transaction2lock.computeIfAbsent(tid, k -> new HashMap<>()).put(key,mode);
+    }
+    //Grant the longest prefix of the wait queue that is compatible, and wake those waiters
+    private void grantWaiters(LockQueue queue,Object key){
+        while(!queue.waiting.isEmpty()){
+            LockRequest head=queue.waiting.peekFirst();
+            if(!compatible(queue,head.tid,head.mode))
+                break;
+            queue.waiting.pollFirst();
+            grant(queue,head.tid,key,head.mode);
+            head.granted=true;
+            waitsFor.remove(head.tid);
+            head.granted_cond.signal();
+        }
+        if(queue.granted.isEmpty()&&queue.waiting.isEmpty())
+            Lock2Transaction.remove(key);
+        else
+            updateEdges(queue);
+    }
+    //A transaction release its lock on a page
+    public void release_page(TransactionId tid,PageId pid){
+        latch.lock();
+        try {
+            LockQueue queue=Lock2Transaction.get(pid);
+            if(queue==null)
+                return;
+            Map<Object,LockMode> locks=Transaction2lock.get(tid);
+            if(locks==null)
+                return;
+            locks.remove(pid);
+            unlock(queue,tid,pid);
+        }finally {
+            latch.unlock();
+        }
+    }
+    //Drop tid from the granted group and pass the lock on
+    private void unlock(LockQueue queue,TransactionId tid,Object key){
+        LockMode held=queue.granted.remove(tid);
+        if(held==null)
             return;
-        for(Tid_Lock tid_lock:Page2Transaction.get(pid)){
-            release_page(tid_lock.tid,pid);
+        queue.modes[held.ordinal()]--;
+        if(key instanceof PageId&&pageLocks.containsKey(tid))
+            pageLocks.get(tid).computeIfPresent(TableKey.of(key),(k,n)->n>1?n-1:null);
+        grantWaiters(queue,key);
+    }
+    //check if a transaction holds a lock on a page, itself or through its table
+    public boolean holdsLock(TransactionId tid,PageId pid){
+        return getLockMode(tid,pid)!=null||covers(getTableLockMode(tid,pid.getTableId()));
+    }
+    //check if a transaction holds a lock on a row, itself or through its table
+    public boolean holdsLock(TransactionId tid,RecordId rid){
+        return getLockMode(tid,rid)!=null||covers(getTableLockMode(tid,rid.getPageId().getTableId()));
+    }
+    private static boolean covers(LockMode table){
+        return table!=null&&table.coversChild(LockMode.S);
+    }
+    /** @return the mode tid holds the table lock in, or null */
+    public LockMode getTableLockMode(TransactionId tid,int tableId){
+        return getLockMode(tid,new TableKey(tableId));
+    }
+    private LockMode getLockMode(TransactionId tid,Object key){
+        latch.lock();
+        try {
+            Map<Object,LockMode> locks=Transaction2lock.get(tid);
+            return locks==null?null:locks.get(key);
+        }finally {
+            latch.unlock();
+        }
+    }
+    //release all locks on a page
+    public void release_page(PageId pid){
+        latch.lock();
+        try {
+            LockQueue queue=Lock2Transaction.get(pid);
+            if(queue==null)
+                return;
+            for(TransactionId tid:new ArrayList<>(queue.granted.keySet())){
+                release_page(tid,pid);
+            }
+        }finally {
+            latch.unlock();
         }
     }
     //release all locks of a transaction
-    public synchronized void release_page(TransactionId tid){
-        if(Transaction2page.get(tid)==null)
+    public void release_page(TransactionId tid){
+        latch.lock();
+        try {
+            wounded.remove(tid);
+            pageLocks.remove(tid);
+            Map<Object,LockMode> locks=Transaction2lock.remove(tid);
+            if(locks==null)
+                return;
+            for(Object key:locks.keySet()){
+                LockQueue queue=Lock2Transaction.get(key);
+                if(queue!=null)
+                    unlock(queue,tid,key);
+            }
+        }finally {
+            latch.unlock();
+        }
+    }
+    //Recompute the waits-for edges of the requests waiting on one object. This is
+    //the only place edges are added, so the cost depends on the length of this
+    //queue, not on the number of locks in the system
+    private void updateEdges(LockQueue queue){
+        if(deadlockPolicy!=DeadlockPolicy.DETECT)
+            return;
+        for(LockRequest request:queue.waiting)
+            waitsFor.put(request.tid,blockers(queue,request));
+    }
+    //The transactions a waiting request waits for
+    private Set<TransactionId> blockers(LockQueue queue,LockRequest request){
+        Set<TransactionId> res=new HashSet<>();
+        //incompatible holders
+        for(Map.Entry<TransactionId,LockMode> holder:queue.granted.entrySet()){
+            if(!holder.getKey().equals(request.tid)&&!request.mode.isCompatibleWith(holder.getValue()))
+                res.add(holder.getKey());
+        }
+        //incompatible requests queued ahead of it
+        for(LockRequest ahead:queue.waiting){
+            if(ahead==request)
+                break;
+            if(!request.mode.isCompatibleWith(ahead.mode))
+                res.add(ahead.tid);
+        }
+        return res;
+    }
+    //Apply the prevention policy to a waiting transaction and one it waits for.
+    //Either way only older transactions end up waiting for younger ones, or only
+    //younger for older, so no cycle can form
+    private void prevent(TransactionId waiter,TransactionId blocker){
+        if(waiter.equals(blocker))
             return;
-        for(PageId_Lock pid_lock:Transaction2page.get(tid)){
-            release_page(tid, pid_lock.pageId);
-        }
-    }
-    //This method check if there is a deadlock related to transaction 'tid'
-    public synchronized Boolean check_deadlock(TransactionId tid,PageId pid,Permissions perm){
-        //build graph
-        Map<TransactionId, CopyOnWriteArraySet<TransactionId>> graph=new HashMap<>();
-        PageId_Lock temp_pidlock=new PageId_Lock(pid,perm);
-        Tid_Lock temp_tidlock=new Tid_Lock(tid,perm);
-        //We add two temporary locks
-        Transaction2page.computeIfAbsent(tid, k -> new CopyOnWriteArrayList<>()).add(temp_pidlock);
-        Page2Transaction.computeIfAbsent(pid, k -> new CopyOnWriteArrayList<>()).add(temp_tidlock);
-        for(TransactionId tid_t:Transaction2page.keySet()){
-            for(PageId_Lock pageId_lock:Transaction2page.get(tid_t)){
-                for(Tid_Lock tid_lock:Page2Transaction.get(pageId_lock.pageId)){
-                    if(tid_lock.tid!=tid_t&&(pageId_lock.permissions==Permissions.READ_WRITE||tid_lock.permissions==Permissions.READ_WRITE)){
-                        if(graph.get(tid_t)==null) {
-                            graph.put(tid_t,new CopyOnWriteArraySet<>());
-                            graph.get(tid_t).add(tid_lock.tid);
-                        }else {
-                            graph.get(tid_t).add(tid_lock.tid);
-                        }
-                    }
+        boolean older=waiter.getId()<blocker.getId();
+        if(deadlockPolicy==DeadlockPolicy.WAIT_DIE&&!older)
+            abort(waiter);
+        else if(deadlockPolicy==DeadlockPolicy.WOUND_WAIT&&older)
+            wound(blocker);
+    }
+    //Make an older transaction's victim abort: at once if it is waiting, otherwise
+    //at its next lock request
+    private void wound(TransactionId tid){
+        wounded.add(tid);
+        if(waitingRequests.containsKey(tid))
+            abort(tid);
+    }
+    //Search the waits-for graph for a cycle through transaction 'tid', and return
+    //the transactions on it, or null if there is none
+    private List<TransactionId> find_cycle(TransactionId tid){
+        Deque<TransactionId> stack=new ArrayDeque<>();
+        Map<TransactionId,TransactionId> parent=new HashMap<>();
+        stack.push(tid);
+        while(!stack.isEmpty()){
+            TransactionId cur=stack.pop();
+            //a transaction that doesn't wait has no edges and can't be part of a cycle,
+            //nor can a victim that is about to give up waiting
+            Set<TransactionId> edges=waitsFor.get(cur);
+            if(edges==null||waitingRequests.get(cur).aborted)
+                continue;
+            for(TransactionId next:edges){
+                if(next.equals(tid)){
+                    List<TransactionId> cycle=new ArrayList<>();
+                    for(TransactionId t=cur;t!=null;t=parent.get(t))
+                        cycle.add(t);
+                    return cycle;
+                }
+                if(waitingRequests.containsKey(next)&&!parent.containsKey(next)&&!next.equals(tid)){
+                    parent.put(next,cur);
+                    stack.push(next);
                 }
             }
         }
-        //detect cycle related to tid, use deep-first search on the directed graph
-        HashMap<TransactionId,Boolean> visited=new HashMap<>();
-        Boolean has_cycle=DFS(graph,visited,tid);
-        //we remove two temporary locks
-        Transaction2page.get(tid).remove(temp_pidlock);
-        Page2Transaction.get(pid).remove(temp_tidlock);
-        return has_cycle;
-    }
-    //If there is a cycle,DFS will return true
-    private Boolean DFS(Map<TransactionId, CopyOnWriteArraySet<TransactionId>> graph,HashMap<TransactionId,Boolean> visited,TransactionId tid){
-        visited.put(tid,true);
-        Boolean flag=false;
-        if(graph.get(tid)==null)
-            return false;
-        for(TransactionId tid_t:graph.get(tid)){
-            if(visited.get(tid_t)!=null&&visited.get(tid_t))
-                return true;
-            flag = flag || DFS(graph,visited,tid_t);
+        return null;
+    }
+    private TransactionId chooseVictim(List<TransactionId> cycle){
+        TransactionId victim=null;
+        long best=0;
+        for(TransactionId t:cycle){
+            long cost;
+            switch (victimPolicy){
+                case FEWEST_LOCKS:
+                    cost=Transaction2lock.containsKey(t)?Transaction2lock.get(t).size():0;
+                    break;
+                case LEAST_WORK:
+                    //nothing is logged before commit, the X locks show what t has written so far
+                    cost=0;
+                    if(Transaction2lock.containsKey(t))
+                        for(LockMode mode:Transaction2lock.get(t).values())
+                            if(mode==LockMode.X)
+                                cost++;
+                    break;
+                default:
+                    //the youngest transaction has the largest id, so it is the cheapest to abort
+                    cost=-t.getId();
+            }
+            //break ties towards the youngest
+            if(victim==null||cost<best||(cost==best&&t.getId()>victim.getId())){
+                victim=t;
+                best=cost;
+            }
         }
-        return flag;
+        return victim;
+    }
+    //Abort a waiting transaction: wake it up so that it throws TransactionAbortedException
+    private void abort(TransactionId victim){
+        LockRequest request=waitingRequests.get(victim);
+        request.aborted=true;
+        request.granted_cond.signal();
     }
 }
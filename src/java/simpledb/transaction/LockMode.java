@@ -0,0 +1,76 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+
+/**
+ * The modes of the multi-granularity locks LockManager grants on tables,
+ * pages and rows. The intention modes IS and IX are taken on a table or page
+ * before locking something inside it, in S or X mode respectively; SIX reads
+ * the whole object and intends to write some of its parts.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** @return whether two transactions may hold this mode and other at the same time */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return whether holding this mode grants everything other grants */
+    public boolean covers(LockMode other) {
+        switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+        }
+    }
+
+    /** @return the weakest mode that covers both this mode and other, used for upgrades */
+    public LockMode combine(LockMode other) {
+        if (covers(other))
+            return this;
+        if (other.covers(this))
+            return other;
+        // S and IX are the only modes neither of which covers the other
+        return SIX;
+    }
+
+    /** @return the mode the parent (table or page) must be locked in before locking a child in this mode */
+    public LockMode intention() {
+        return this == IS || this == S ? IS : IX;
+    }
+
+    /** @return whether holding this mode on a table or page implicitly locks its children in mode child */
+    public boolean coversChild(LockMode child) {
+        switch (this) {
+            case X:
+                return true;
+            case S:
+            case SIX:
+                return child == S || child == IS;
+            default:
+                return false;
+        }
+    }
+
+    /** @return the page lock mode BufferPool.getPage takes for perm */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+}
@@ -45,13 +45,16 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
-            //write abort log record and rollback transaction
-            if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
-            } 
-
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            try {
+                //write abort log record and rollback transaction
+                if (abort) {
+                    Database.getLogFile().logAbort(tid); //does rollback too
+                }
+            } finally {
+                // Release locks and flush pages if needed; waiters block until
+                // we do, so this must happen even if the rollback failed
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            }
 
             // write commit log record
             if (!abort) {
@@ -0,0 +1,100 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  //A list of tuples that counts how often it is rewound
+  private static class Inner extends TupleIterator {
+    int rewinds = 0;
+    Inner(List<Tuple> tuples) {
+      super(Utility.getTupleDesc(2), tuples);
+      open();
+    }
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * A block nested loops join returns the same rows as one that rescans
+   * child2 per tuple, rescanning it once per block
+   */
+  @Test public void blockJoin() throws Exception {
+    List<Tuple> outer = TestUtil.keyedTuples(TestUtil.randomKeys(1200, 100, 1));
+    List<Tuple> inner = TestUtil.keyedTuples(TestUtil.randomKeys(300, 100, 2));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+
+    Inner in1 = new Inner(inner);
+    Join join = new Join(pred, new TupleIterator(Utility.getTupleDesc(2), outer), in1);
+    join.open();
+    List<String> expected = TestUtil.sortedRows(join);
+    join.close();
+    assertEquals(1200, in1.rewinds);
+
+    Inner in2 = new Inner(inner);
+    join = new Join(pred, new TupleIterator(Utility.getTupleDesc(2), outer), in2, 1);
+    join.open();
+    assertEquals(expected, TestUtil.sortedRows(join));
+    int blocks = (1200 + Join.blockTuples(Utility.getTupleDesc(2), 1) - 1)
+        / Join.blockTuples(Utility.getTupleDesc(2), 1);
+    assertEquals(blocks, in2.rewinds);
+
+    // a rewind part way through starts over from the first block
+    join.rewind();
+    for (int i = 0; i < 10; i++)
+      join.next();
+    join.rewind();
+    assertEquals(expected, TestUtil.sortedRows(join));
+    join.close();
+  }
+
+  /**
+   * Inequality joins are planned, and costed, as block nested loops joins
+   */
+  @Test public void optimizerUsesBlocks() throws Exception {
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 5000, 100, null, null);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, null);
+    Database.getCatalog().addTable(f1, "t1");
+    Database.getCatalog().addTable(f2, "t2");
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(f1.getId(), "t1");
+    lp.addScan(f2.getId(), "t2");
+    JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+
+    LogicalJoinNode lt = new LogicalJoinNode("t1", "t2", "0", "0", Predicate.Op.LESS_THAN);
+    LogicalJoinNode eq = new LogicalJoinNode("t1", "t2", "0", "0", Predicate.Op.EQUALS);
+    double ltCost = jo.estimateJoinCost(lt, 6000, 1000, 10, 2);
+    double eqCost = jo.estimateJoinCost(eq, 6000, 1000, 10, 2);
+    assertTrue(ltCost < eqCost);
+    // one scan of t2 per block of 10 pages, 5040 tuples, of t1
+    assertEquals(10 + 2 * 2 + 6000.0 * 1000, ltCost, 0.001);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
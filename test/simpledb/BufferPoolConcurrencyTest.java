@@ -0,0 +1,68 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+    private static final int THREADS = 16;
+    private static final int PAGES = 40;
+    private static final int READS_PER_THREAD = 2000;
+
+    /**
+     * Many readers fetching and unpinning pages of a table larger than the
+     * pool always get the page they asked for
+     */
+    @Test public void concurrentReadersWithEviction() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        // one frame per thread: a thread never needs a frame while every other one is pinned
+        BufferPool bp = Database.resetBufferPool(THREADS);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final long seed = i;
+            threads[i] = new Thread(() -> {
+                Random rand = new Random(seed);
+                TransactionId tid = new TransactionId();
+                try {
+                    for (int j = 0; j < READS_PER_THREAD; j++) {
+                        HeapPageId pid = new HeapPageId(f.getId(), rand.nextInt(PAGES));
+                        Page page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        assertEquals(pid, page.getId());
+                        bp.unpinPage(tid, pid);
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        if (error.get() != null)
+            throw new AssertionError("reader thread failed", error.get());
+        assertEquals((long) THREADS * READS_PER_THREAD, bp.getHitCount() + bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
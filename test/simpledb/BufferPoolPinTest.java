@@ -0,0 +1,129 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolPinTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+  private TransactionId tid;
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and populate it with three pages.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId writer = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+    bp.transactionComplete(writer);
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+    this.tid = new TransactionId();
+    bp = Database.resetBufferPool(2);
+  }
+
+  /**
+   * Pinned pages are never evicted
+   */
+  @Test public void pinnedPagesAreNotEvicted() throws Exception {
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    try {
+      bp.getPage(tid, p2, Permissions.READ_ONLY);
+      fail("Expected eviction to fail while every page is pinned");
+    } catch (DbException ignored) {}
+
+    bp.unpinPage(tid, p1);
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+  }
+
+  /**
+   * A page pinned twice stays pinned until both pins are released
+   */
+  @Test public void pinsAreCounted() throws Exception {
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    bp.unpinPage(tid, p0);
+    try {
+      bp.getPage(tid, p2, Permissions.READ_ONLY);
+      fail("Expected eviction to fail while every page is pinned");
+    } catch (DbException ignored) {}
+
+    bp.unpinPage(tid, p0);
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+  }
+
+  /**
+   * Pins still held when the transaction completes are released
+   */
+  @Test public void transactionCompleteReleasesPins() throws Exception {
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    bp.transactionComplete(tid);
+
+    TransactionId tid2 = new TransactionId();
+    bp.getPage(tid2, p2, Permissions.READ_ONLY);
+  }
+
+  /**
+   * Unpinning a page that was discarded after it was pinned doesn't take a
+   * pin off the frame the page was loaded into again
+   */
+  @Test public void unpinAfterDiscardKeepsNewPins() throws Exception {
+    bp.getPage(tid, p0, Permissions.READ_ONLY);
+    bp.discardPage(p0);
+
+    TransactionId tid2 = new TransactionId();
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p1, Permissions.READ_ONLY);
+    bp.unpinPage(tid, p0);
+    try {
+      bp.getPage(tid2, p2, Permissions.READ_ONLY);
+      fail("Expected eviction to fail while every page is pinned");
+    } catch (DbException ignored) {}
+  }
+
+  /**
+   * A scan releases the pin of each page as it moves on, so a small pool
+   * can scan a table larger than itself while another page stays pinned
+   */
+  @Test public void scanUnpinsPages() throws Exception {
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    assertEquals(1025, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BufferPoolPinTest.class);
+  }
+}
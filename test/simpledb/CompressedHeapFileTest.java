@@ -0,0 +1,154 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+  private static final int ROWS = 2000;
+
+  private File dir;
+  private HeapFile heap;
+  private File compressed;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    dir = Files.createTempDirectory("compressed").toFile();
+    dir.deleteOnExit();
+    File txt = new File(dir, "history.txt");
+    txt.deleteOnExit();
+    try (FileWriter w = new FileWriter(txt)) {
+      for (int i = 0; i < ROWS; i++)
+        w.write(i + ",event " + (i % 10) + "\n");
+    }
+    File heapFile = new File(dir, "heap.dat");
+    heapFile.deleteOnExit();
+    Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+    HeapFileEncoder.convert(txt, heapFile, BufferPool.getPageSize(), 2, types, ',');
+    heap = new HeapFile(heapFile, new TupleDesc(types, new String[]{ "id", "event" }));
+    Database.getCatalog().addTable(heap, "heap");
+
+    compressed = new File(dir, "history.dat");
+    compressed.deleteOnExit();
+    HeapFileEncoder.compress(heap, compressed);
+  }
+
+  private CompressedHeapFile open() {
+    CompressedHeapFile f = new CompressedHeapFile(compressed, heap.getTupleDesc());
+    Database.getCatalog().addTable(f, "history");
+    return f;
+  }
+
+  private List<Tuple> scan(DbFile f) throws Exception {
+    TransactionId tid = new TransactionId();
+    List<Tuple> tuples = new ArrayList<>();
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      tuples.add(it.next());
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return tuples;
+  }
+
+  /**
+   * A compressed copy of a table is much smaller, and a table loaded with the
+   * compressed schema option scans back the same rows
+   */
+  @Test public void compressAndLoad() throws Exception {
+    assertTrue(compressed.length() * 4 < heap.getFile().length());
+
+    File schema = new File(dir, "catalog.txt");
+    schema.deleteOnExit();
+    try (FileWriter w = new FileWriter(schema)) {
+      w.write("history (id int, event string) compressed\n");
+    }
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("history"));
+    assertTrue(f instanceof CompressedHeapFile);
+    assertEquals(heap.numPages(), ((HeapFile) f).numPages());
+
+    List<Tuple> expected = scan(heap);
+    List<Tuple> actual = scan(f);
+    assertEquals(ROWS, actual.size());
+    for (int i = 0; i < ROWS; i++) {
+      assertEquals(expected.get(i).getField(0), actual.get(i).getField(0));
+      assertEquals(expected.get(i).getField(1), actual.get(i).getField(1));
+    }
+  }
+
+  /**
+   * Changed pages are appended as new versions, which survive reopening the
+   * file and are all that is left after compacting it
+   */
+  @Test public void updateAndCompact() throws Exception {
+    CompressedHeapFile f = open();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(f.getTupleDesc());
+      t.setField(0, new IntField(ROWS + i));
+      t.setField(1, new StringField("late event", Type.STRING_LEN));
+      Database.getBufferPool().insertTuple(tid, f.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    long grown = compressed.length();
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    f = open();
+    assertEquals(ROWS + 100, scan(f).size());
+
+    File compacted = new File(dir, "compacted.dat");
+    compacted.deleteOnExit();
+    HeapFileEncoder.compress(f, compacted);
+    assertTrue(compacted.length() < grown);
+    CompressedHeapFile c = new CompressedHeapFile(compacted, f.getTupleDesc());
+    Database.getCatalog().addTable(c, "compacted");
+    assertEquals(f.numPages(), c.numPages());
+    assertEquals(ROWS + 100, scan(c).size());
+  }
+
+  /**
+   * A record cut short at the end of the file is dropped
+   */
+  @Test public void tornAppend() throws Exception {
+    long length = compressed.length();
+    try (FileOutputStream out = new FileOutputStream(compressed, true)) {
+      out.write(new byte[]{ 0, 0, 0, 1, 0, 0, 1, 0, 42 });
+    }
+    CompressedHeapFile f = open();
+    assertEquals(ROWS, scan(f).size());
+    assertEquals(length, compressed.length());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+  }
+}
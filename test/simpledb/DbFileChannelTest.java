@@ -0,0 +1,86 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileChannel;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+  private HeapFile hf;
+  private HeapPageId pid;
+  private final List<List<Integer>> tuples = new ArrayList<>();
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    hf = SystemTestUtil.createRandomHeapFile(2, 20, null, tuples);
+    pid = new HeapPageId(hf.getId(), 0);
+  }
+
+  /**
+   * Reading a page many times doesn't open the file again each time
+   */
+  @Test public void repeatedReads() throws Exception {
+    // the first read opens the channel, and loads classes from jars that stay open
+    hf.readPage(pid);
+    File fds = new File("/proc/self/fd");
+    int before = fds.exists() ? fds.list().length : 0;
+    for (int i = 0; i < 1000; i++)
+      assertEquals(20, 504 - ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    if (fds.exists())
+      assertTrue(fds.list().length <= before);
+  }
+
+  /**
+   * A page written through the channel reads back the same
+   */
+  @Test public void writeThenRead() throws Exception {
+    HeapPage page = (HeapPage) hf.readPage(pid);
+    HeapPageId next = new HeapPageId(hf.getId(), 1);
+    hf.writePage(new HeapPage(next, page.getPageData()));
+    assertEquals(2, hf.numPages());
+    assertArrayEquals(page.getPageData(), hf.readPage(next).getPageData());
+  }
+
+  /**
+   * Clearing the catalog closes the file, which is reopened when it is used again
+   */
+  @Test public void reopenAfterClear() throws Exception {
+    hf.readPage(pid);
+    Database.getCatalog().clear();
+    Database.getCatalog().addTable(hf);
+    assertEquals(20, 504 - ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+  }
+
+  /**
+   * A read past the end of the file reads nothing
+   */
+  @Test public void readPastEnd() throws Exception {
+    DbFileChannel channel = new DbFileChannel(hf.getFile());
+    byte[] data = new byte[BufferPool.getPageSize()];
+    assertEquals(BufferPool.getPageSize(), channel.read(data, 0));
+    assertEquals(0, channel.read(data, hf.getFile().length()));
+    channel.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DbFileChannelTest.class);
+  }
+}
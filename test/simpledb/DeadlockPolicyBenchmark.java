@@ -0,0 +1,108 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager.DeadlockPolicy;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares throughput and abort rate of the LockManager deadlock policies.
+ * <p>
+ * Two workloads are run for each policy:
+ * <ul>
+ * <li>pages: the DeadlockTest pattern, each transaction read-locks one
+ * random page of a small table and then write-locks another one</li>
+ * <li>btree: the BTreeDeadlockTest pattern, concurrent transactions insert
+ * a few tuples each into a B+ tree around two hot keys</li>
+ * </ul>
+ * Run with {@code java -cp bin/src:bin/test:lib/* simpledb.DeadlockPolicyBenchmark [threads] [seconds]}.
+ */
+public class DeadlockPolicyBenchmark {
+    private static final int PAGES = 8;
+    private static final int INSERTS_PER_TRANSACTION = 4;
+
+    private interface Work {
+        void run(TransactionId tid, Random rand) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        // the victims' messages would drown the results
+        System.setOut(new java.io.PrintStream(new java.io.OutputStream() {
+            public void write(int b) {}
+        }));
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Work pages = (tid, rand) -> {
+            BufferPool bp = Database.getBufferPool();
+            bp.getPage(tid, new HeapPageId(table.getId(), rand.nextInt(PAGES)), Permissions.READ_ONLY);
+            Thread.yield();
+            bp.getPage(tid, new HeapPageId(table.getId(), rand.nextInt(PAGES)), Permissions.READ_WRITE);
+        };
+
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+        Database.resetBufferPool(500);
+        int[] hotKeys = {BTreeUtility.MAX_RAND_VALUE / 3, 2 * BTreeUtility.MAX_RAND_VALUE / 3};
+        Work btree = (tid, rand) -> {
+            for (int i = 0; i < INSERTS_PER_TRANSACTION; i++) {
+                int key = hotKeys[rand.nextInt(hotKeys.length)];
+                Database.getBufferPool().insertTuple(tid, tree.getId(),
+                        BTreeUtility.getBTreeTuple(new int[]{key, rand.nextInt()}));
+            }
+        };
+
+        System.err.printf("%-6s %-11s %12s %12s %12s%n", "load", "policy", "commits/s", "aborts/s", "aborts/commit");
+        for (DeadlockPolicy policy : DeadlockPolicy.values())
+            report("pages", policy, pages, threads, seconds);
+        for (DeadlockPolicy policy : DeadlockPolicy.values())
+            report("btree", policy, btree, threads, seconds);
+    }
+
+    private static void report(String load, DeadlockPolicy policy, Work work, int threads, int seconds)
+            throws InterruptedException {
+        Database.getLockManager().setDeadlockPolicy(policy);
+        AtomicLong commits = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        long stop = System.currentTimeMillis() + seconds * 1000L;
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random rand = new Random(seed);
+                while (System.currentTimeMillis() < stop) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        work.run(tid, rand);
+                        Database.getBufferPool().transactionComplete(tid, true);
+                        commits.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        Database.getBufferPool().transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread t : workers)
+            t.join();
+
+        System.err.printf("%-6s %-11s %12.1f %12.1f %12.3f%n", load, policy,
+                commits.get() / (double) seconds, aborts.get() / (double) seconds,
+                aborts.get() / (double) Math.max(1, commits.get()));
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import simpledb.TestUtil.LockGrabber;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager.DeadlockPolicy;
+import simpledb.transaction.TransactionId;
+
+public class DeadlockPreventionTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1;
+  private TransactionId older, younger;
+
+  private static final int POLL_INTERVAL = 100;
+
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and populate it with two pages.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 600; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(2, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+
+    // forget about locks associated to tid, so they don't conflict with
+    // test cases
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    this.older = new TransactionId();
+    this.younger = new TransactionId();
+  }
+
+  private LockGrabber startGrabber(TransactionId tid, PageId pid) throws Exception {
+    LockGrabber lg = new LockGrabber(tid, pid, Permissions.READ_WRITE);
+    lg.start();
+    Thread.sleep(POLL_INTERVAL);
+    return lg;
+  }
+
+  /**
+   * Under wait-die a younger transaction is aborted rather than wait for an
+   * older one
+   */
+  @Test public void waitDieYoungerDies() throws Exception {
+    Database.getLockManager().setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+    assertTrue(startGrabber(older, p0).acquired());
+
+    LockGrabber wait = startGrabber(younger, p0);
+    assertFalse(wait.acquired());
+    assertNotNull(wait.getError());
+  }
+
+  /**
+   * Under wait-die an older transaction waits for a younger one
+   */
+  @Test public void waitDieOlderWaits() throws Exception {
+    Database.getLockManager().setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+    assertTrue(startGrabber(younger, p0).acquired());
+
+    LockGrabber wait = startGrabber(older, p0);
+    assertFalse(wait.acquired());
+    assertNull(wait.getError());
+
+    bp.transactionComplete(younger);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(wait.acquired());
+  }
+
+  /**
+   * Under wound-wait a younger transaction waits for an older one
+   */
+  @Test public void woundWaitYoungerWaits() throws Exception {
+    Database.getLockManager().setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+    assertTrue(startGrabber(older, p0).acquired());
+
+    LockGrabber wait = startGrabber(younger, p0);
+    assertFalse(wait.acquired());
+    assertNull(wait.getError());
+
+    bp.transactionComplete(older);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(wait.acquired());
+  }
+
+  /**
+   * Under wound-wait an older transaction aborts a younger one that is
+   * waiting for it, and takes its lock
+   */
+  @Test public void woundWaitOlderWoundsWaiter() throws Exception {
+    Database.getLockManager().setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+    assertTrue(startGrabber(older, p1).acquired());
+    assertTrue(startGrabber(younger, p0).acquired());
+    LockGrabber youngerWait = startGrabber(younger, p1);
+    assertFalse(youngerWait.acquired());
+
+    LockGrabber olderWait = startGrabber(older, p0);
+    assertNotNull(youngerWait.getError());
+    assertTrue(olderWait.acquired());
+  }
+
+  /**
+   * A wounded transaction that isn't waiting aborts at its next lock request
+   */
+  @Test public void woundWaitWoundedAbortsLater() throws Exception {
+    Database.getLockManager().setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+    assertTrue(startGrabber(younger, p0).acquired());
+
+    LockGrabber olderWait = startGrabber(older, p0);
+    assertFalse(olderWait.acquired());
+
+    LockGrabber next = startGrabber(younger, p1);
+    assertNotNull(next.getError());
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(olderWait.acquired());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeadlockPreventionTest.class);
+  }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import simpledb.TestUtil.LockGrabber;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionId;
+
+public class DeadlockVictimTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2, p3, p4;
+  private TransactionId older, younger;
+
+  private static final int POLL_INTERVAL = 100;
+  /** Longest time to wait for a blocked request to be granted or aborted, in ms */
+  private static final int TIMEOUT = 10000;
+
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and populate it with five pages.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 2017; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(5, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+    this.p3 = new HeapPageId(empty.getId(), 3);
+    this.p4 = new HeapPageId(empty.getId(), 4);
+
+    // forget about locks associated to tid, so they don't conflict with
+    // test cases
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    this.older = new TransactionId();
+    this.younger = new TransactionId();
+  }
+
+  private LockGrabber startGrabber(TransactionId tid, PageId pid) throws Exception {
+    return startGrabber(tid, pid, Permissions.READ_WRITE);
+  }
+
+  private LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+    LockGrabber lg = new LockGrabber(tid, pid, perm);
+    lg.start();
+    Thread.sleep(POLL_INTERVAL);
+    return lg;
+  }
+
+  /**
+   * Polls until lg's request was granted or aborted, or TIMEOUT passes.
+   */
+  private static void await(LockGrabber lg) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while (!lg.acquired() && lg.getError() == null && System.currentTimeMillis() < deadline)
+      Thread.sleep(POLL_INTERVAL / 10);
+  }
+
+  /**
+   * older holds p0, younger holds p1 and p2. younger waits for p0, then older
+   * closes the cycle by asking for p1. Waits until the deadlock is resolved.
+   * @return the grabbers of younger's and older's blocked requests
+   */
+  private LockGrabber[] buildDeadlock() throws Exception {
+    assertTrue(startGrabber(older, p0).acquired());
+    assertTrue(startGrabber(younger, p1).acquired());
+    assertTrue(startGrabber(younger, p2).acquired());
+
+    LockGrabber youngerWait = startGrabber(younger, p0);
+    assertFalse(youngerWait.acquired());
+    LockGrabber olderWait = startGrabber(older, p1);
+    await(youngerWait);
+    await(olderWait);
+    return new LockGrabber[]{youngerWait, olderWait};
+  }
+
+  /**
+   * YOUNGEST aborts the younger transaction, even though it was already
+   * waiting when the older one closed the cycle.
+   */
+  @Test public void youngestIsAborted() throws Exception {
+    Database.getLockManager().setVictimPolicy(LockManager.VictimPolicy.YOUNGEST);
+    LockGrabber[] lg = buildDeadlock();
+
+    assertNotNull(lg[0].getError());
+    assertNull(lg[1].getError());
+    assertTrue(lg[1].acquired());
+  }
+
+  /**
+   * FEWEST_LOCKS aborts the older transaction, which holds one lock against
+   * the younger one's two.
+   */
+  @Test public void fewestLocksIsAborted() throws Exception {
+    Database.getLockManager().setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+    LockGrabber[] lg = buildDeadlock();
+
+    assertNotNull(lg[1].getError());
+    assertNull(lg[0].getError());
+    assertTrue(lg[0].acquired());
+  }
+
+  /**
+   * LEAST_WORK aborts the older transaction, which wrote one page against the
+   * younger one's two, although it holds more locks after reading p3 and p4.
+   */
+  @Test public void leastWorkIsAborted() throws Exception {
+    Database.getLockManager().setVictimPolicy(LockManager.VictimPolicy.LEAST_WORK);
+    assertTrue(startGrabber(older, p3, Permissions.READ_ONLY).acquired());
+    assertTrue(startGrabber(older, p4, Permissions.READ_ONLY).acquired());
+    LockGrabber[] lg = buildDeadlock();
+
+    assertNotNull(lg[1].getError());
+    assertNull(lg[0].getError());
+    assertTrue(lg[0].acquired());
+  }
+
+  /**
+   * A wait that doesn't close a cycle aborts nobody.
+   */
+  @Test public void noCycleNoVictim() throws Exception {
+    assertTrue(startGrabber(older, p0).acquired());
+    LockGrabber wait = startGrabber(younger, p0);
+    assertFalse(wait.acquired());
+    assertNull(wait.getError());
+
+    bp.transactionComplete(older);
+    await(wait);
+    assertTrue(wait.acquired());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeadlockVictimTest.class);
+  }
+}
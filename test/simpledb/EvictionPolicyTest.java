@@ -0,0 +1,86 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.EvictionPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.TwoQueuePolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static void load(EvictionPolicy policy, int frames) {
+        for (int i = 0; i < frames; i++)
+            policy.loaded(i, new HeapPageId(1, i));
+    }
+
+    /**
+     * CLOCK gives referenced frames a second chance
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy policy = new ClockPolicy(3);
+        load(policy, 3);
+        // the first sweep clears every reference bit, so frame 0 goes first
+        assertEquals(0, policy.victim(i -> true));
+        policy.removed(0);
+        policy.loaded(0, new HeapPageId(1, 3));
+        policy.accessed(1);
+        assertEquals(2, policy.victim(i -> true));
+    }
+
+    /**
+     * LRU-2 evicts pages referenced once before pages referenced twice
+     */
+    @Test public void lruKPrefersColdPages() {
+        EvictionPolicy policy = new LruKPolicy(3, 2);
+        load(policy, 3);
+        policy.accessed(0);
+        policy.accessed(2);
+        assertEquals(1, policy.victim(i -> true));
+        assertEquals(0, policy.victim(i -> i != 1));
+    }
+
+    /**
+     * A scan through 2Q doesn't push out a page that was promoted to Am
+     */
+    @Test public void twoQueueScanResistance() {
+        EvictionPolicy policy = new TwoQueuePolicy(4, 1, 4);
+        HeapPageId hot = new HeapPageId(1, 100);
+        policy.loaded(0, hot);
+        policy.removed(0);
+        // reloading a page remembered in A1out promotes it to Am
+        policy.loaded(0, hot);
+        for (int pgNo = 0; pgNo < 20; pgNo++) {
+            int frame = pgNo < 3 ? pgNo + 1 : policy.victim(i -> true);
+            assertNotEquals(0, frame);
+            if (pgNo >= 3)
+                policy.removed(frame);
+            policy.loaded(frame, new HeapPageId(1, pgNo));
+        }
+    }
+
+    /**
+     * No policy picks a frame that may not be evicted
+     */
+    @Test public void victimHonoursPredicate() {
+        EvictionPolicy[] policies = { new ClockPolicy(4), new LruKPolicy(4), new TwoQueuePolicy(4) };
+        for (EvictionPolicy policy : policies) {
+            load(policy, 4);
+            assertEquals(policy.getName(), 3, policy.victim(i -> i == 3));
+            assertEquals(policy.getName(), -1, policy.victim(i -> false));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
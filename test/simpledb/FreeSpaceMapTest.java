@@ -0,0 +1,127 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+  private static final int PAGES = 6;
+  private static final int FREE_PAGE = 3;
+
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and fill six pages.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504 * PAGES; ++i) {
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(PAGES, empty.numPages());
+    bp.transactionComplete(tid);
+  }
+
+  //Deletes one tuple from page FREE_PAGE, and starts over with an empty buffer pool
+  private void freeOneSlot() throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (t.getRecordId().getPageId().getPageNumber() == FREE_PAGE) {
+        bp.deleteTuple(tid, t);
+        break;
+      }
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  //Inserts a tuple, checking that no page other than the one it lands on was visited
+  private int insertVisitingOnePage() throws Exception {
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(-1, 2));
+    assertEquals(1, bp.getHitCount() + bp.getMissCount());
+    bp.transactionComplete(tid);
+
+    tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int pgNo = -1;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (t.getField(0).equals(Utility.getHeapTuple(-1, 2).getField(0)))
+        pgNo = t.getRecordId().getPageId().getPageNumber();
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    return pgNo;
+  }
+
+  /**
+   * An insert goes straight to the page a delete freed a slot on
+   */
+  @Test public void insertIntoFreedSlot() throws Exception {
+    freeOneSlot();
+    assertEquals(FREE_PAGE, insertVisitingOnePage());
+    assertEquals(PAGES, empty.numPages());
+  }
+
+  /**
+   * The map of a table opened again is rebuilt from the page headers on disk
+   */
+  @Test public void rebuiltFromDisk() throws Exception {
+    freeOneSlot();
+    empty = new HeapFile(empty.getFile(), empty.getTupleDesc());
+    Database.getCatalog().addTable(empty);
+    assertEquals(FREE_PAGE, insertVisitingOnePage());
+  }
+
+  /**
+   * A full table gets a new page without reading any of its full pages
+   */
+  @Test public void appendWhenFull() throws Exception {
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(PAGES, insertVisitingOnePage());
+    assertEquals(PAGES + 1, empty.numPages());
+  }
+
+  /**
+   * Searches return the first page with free slots at or after where they start
+   */
+  @Test public void nextFree() {
+    FreeSpaceMap fsm = new FreeSpaceMap();
+    assertEquals(-1, fsm.nextFree(0));
+    fsm.update(5, true);
+    fsm.update(2, true);
+    assertEquals(2, fsm.nextFree(0));
+    assertEquals(5, fsm.nextFree(3));
+    fsm.update(2, false);
+    assertEquals(5, fsm.nextFree(0));
+    assertEquals(-1, fsm.nextFree(6));
+    fsm.update(1, true);
+    assertEquals(1, fsm.nextFree(0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+  }
+}
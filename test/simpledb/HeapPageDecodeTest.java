@@ -0,0 +1,154 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.lab1test.HeapPageReadTest;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+public class HeapPageDecodeTest extends SimpleDbTestBase {
+  private HeapPageId pid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void addTable() {
+    this.pid = new HeapPageId(-1, -1);
+    Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+  }
+
+  /**
+   * A page nobody changed serializes to exactly the data it was read from
+   */
+  @Test public void unchangedRoundTrip() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    Iterator<Tuple> it = page.iterator();
+    it.next().getField(1);
+    assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+  }
+
+  /**
+   * Fields are decoded from the page data when read, in any order
+   */
+  @Test public void decodeOnRead() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    int row = 0;
+    for (Iterator<Tuple> it = page.iterator(); it.hasNext(); row++) {
+      Tuple t = it.next();
+      assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[row][1]), t.getField(1));
+      assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[row][0]), t.getField(0));
+    }
+    assertEquals(HeapPageReadTest.EXAMPLE_VALUES.length, row);
+  }
+
+  /**
+   * Changing a tuple read from the page changes what the page writes
+   */
+  @Test public void changedTupleIsWritten() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    page.iterator().next().setField(1, new IntField(-7));
+
+    Tuple first = new HeapPage(pid, page.getPageData()).iterator().next();
+    assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[0][0]), first.getField(0));
+    assertEquals(new IntField(-7), first.getField(1));
+  }
+
+  /**
+   * A tuple deleted from the page and inserted again is written back
+   */
+  @Test public void reinsertDeleted() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    Tuple t = page.iterator().next();
+    page.deleteTuple(t);
+    page.insertTuple(t);
+    assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+  }
+
+  /**
+   * Type.parse from a byte array decodes what Field.serialize wrote
+   */
+  @Test public void parseFromBytes() throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    new IntField(-123456).serialize(dos);
+    new StringField("decode", Type.STRING_LEN).serialize(dos);
+    byte[] data = baos.toByteArray();
+
+    assertEquals(new IntField(-123456), Type.INT_TYPE.parse(data, 0));
+    assertEquals(new StringField("decode", Type.STRING_LEN), Type.STRING_TYPE.parse(data, 4));
+  }
+
+  /**
+   * Field.serialize into an array writes what it writes to a stream
+   */
+  @Test public void serializeToBytes() throws Exception {
+    Field[] fields = { new IntField(-123456), new StringField("decode", Type.STRING_LEN),
+        new StringField("", Type.STRING_LEN) };
+    for (Field f : fields) {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      f.serialize(new DataOutputStream(baos));
+      byte[] data = new byte[f.getType().getLen() + 2];
+      Arrays.fill(data, (byte) 1);
+      f.serialize(data, 1);
+      assertArrayEquals(baos.toByteArray(), Arrays.copyOfRange(data, 1, data.length - 1));
+      assertEquals(1, data[data.length - 1]);
+    }
+  }
+
+  /**
+   * A page written into a reused buffer overwrites all of what was there
+   */
+  @Test public void reusedBuffer() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    page.deleteTuple(page.iterator().next());
+    page.iterator().next().setField(0, new IntField(42));
+
+    byte[] buf = new byte[BufferPool.getPageSize()];
+    Arrays.fill(buf, (byte) -1);
+    page.getPageData(buf);
+    assertArrayEquals(page.getPageData(), buf);
+  }
+
+  /**
+   * The before image taken at commit has the committed contents, and later
+   * changes to the page don't show through it
+   */
+  @Test public void beforeImage() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+    Tuple t = page.iterator().next();
+    t.setField(1, new IntField(-7));
+    page.setBeforeImage();
+    byte[] committed = page.getPageData();
+    assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+    t.setField(1, new IntField(-8));
+    page.deleteTuple(page.iterator().next());
+    assertArrayEquals(committed, page.getBeforeImage().getPageData());
+    assertEquals(new IntField(-7), page.getBeforeImage().iterator().next().getField(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapPageDecodeTest.class);
+  }
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class HeapPageSlotTest extends SimpleDbTestBase {
+  private HeapPageId pid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void addTable() {
+    this.pid = new HeapPageId(-1, -1);
+    Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+  }
+
+  /**
+   * Inserts take the lowest empty slot, across header words, and the empty
+   * slot count follows inserts and deletes
+   */
+  @Test public void lowestFreeSlot() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    Tuple[] inserted = new Tuple[130];
+    for (int i = 0; i < inserted.length; i++) {
+      inserted[i] = Utility.getHeapTuple(i, 2);
+      page.insertTuple(inserted[i]);
+      assertEquals(i, inserted[i].getRecordId().getTupleNumber());
+    }
+    assertEquals(504 - 130, page.getNumEmptySlots());
+
+    page.deleteTuple(inserted[70]);
+    page.deleteTuple(inserted[3]);
+    assertEquals(504 - 128, page.getNumEmptySlots());
+    Tuple t = Utility.getHeapTuple(-1, 2);
+    page.insertTuple(t);
+    assertEquals(3, t.getRecordId().getTupleNumber());
+    page.insertTuple(t = Utility.getHeapTuple(-2, 2));
+    assertEquals(70, t.getRecordId().getTupleNumber());
+    page.insertTuple(t = Utility.getHeapTuple(-3, 2));
+    assertEquals(130, t.getRecordId().getTupleNumber());
+  }
+
+  /**
+   * A full page has no empty slots, including in its last, partial header word
+   */
+  @Test public void fullPage() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    for (int i = 0; i < 504; i++)
+      page.insertTuple(Utility.getHeapTuple(i, 2));
+    assertEquals(0, page.getNumEmptySlots());
+    assertTrue(page.isSlotUsed(503));
+    try {
+      page.insertTuple(Utility.getHeapTuple(504, 2));
+      fail("page is full");
+    } catch (simpledb.common.DbException e) {
+      // expected
+    }
+    assertEquals(0, new HeapPage(pid, page.getPageData()).getNumEmptySlots());
+  }
+
+  /**
+   * An iterator returns the tuples in the slots used when it was created, even
+   * if they are deleted while it runs
+   */
+  @Test public void iterateWhileDeleting() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    for (int i = 0; i < 100; i++)
+      page.insertTuple(Utility.getHeapTuple(i, 2));
+    int count = 0;
+    Iterator<Tuple> it = page.iterator();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(Utility.getHeapTuple(count, 2).getField(0), t.getField(0));
+      page.deleteTuple(t);
+      count++;
+    }
+    assertEquals(100, count);
+    assertEquals(504, page.getNumEmptySlots());
+    assertFalse(page.iterator().hasNext());
+    try {
+      it.next();
+      fail("iterator is exhausted");
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapPageSlotTest.class);
+  }
+}
@@ -0,0 +1,198 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+  private static final int ROWS = 20000;
+
+  private BTreeFile bf;
+  private TransactionId tid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, ROWS, 5000, null, null, 0);
+    // the same file, with field names a query can refer to
+    bf = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(bf, "b");
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    tid = new TransactionId();
+  }
+
+  //The rows of it, which isn't open yet
+  private static List<String> rows(OpIterator it) throws Exception {
+    it.open();
+    List<String> rows = TestUtil.sortedRows(it);
+    it.close();
+    return rows;
+  }
+
+  /**
+   * Each tuple of child1 is looked up in the index, finding the same rows as
+   * scanning child2, while reading only a few pages
+   */
+  @Test public void indexJoin() throws Exception {
+    int[] keys = { 17, 4000, 2500, 3, 4999, 1234 };
+    for (Predicate.Op op : new Predicate.Op[]{ Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      List<String> expected = rows(new Join(pred, TestUtil.createKeyedTupleList(keys),
+          new SeqScan(tid, bf.getId(), "b")));
+      assertEquals(expected, rows(new IndexNestedLoopJoin(pred, TestUtil.createKeyedTupleList(keys),
+          new SeqScan(tid, bf.getId(), "b"))));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertFalse(rows(new IndexNestedLoopJoin(pred, TestUtil.createKeyedTupleList(keys),
+        new SeqScan(tid, bf.getId(), "b"))).isEmpty());
+    assertTrue(bp.getMissCount() < bf.numPages() / 4);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An index lookup releases the pages above the leaf as it descends, so
+   * probing many times in one transaction works with a one page buffer pool
+   */
+  @Test public void probesDontKeepPagesPinned() throws Exception {
+    int[] keys = { 17, 4000, 2500, 3, 4999, 1234, 17, 2500 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = rows(new Join(pred, TestUtil.createKeyedTupleList(keys),
+        new SeqScan(tid, bf.getId(), "b")));
+    Database.getBufferPool().transactionComplete(tid);
+
+    Database.resetBufferPool(1);
+    tid = new TransactionId();
+    assertEquals(expected, rows(new IndexNestedLoopJoin(pred, TestUtil.createKeyedTupleList(keys),
+        new SeqScan(tid, bf.getId(), "b"))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A child2 that projects columns or filters the index's tuples is joined
+   * as it would be scanned
+   */
+  @Test public void filteredInner() throws Exception {
+    int[] keys = { 100, 200, 300, 4000 };
+    // the key field is field 1 of the projected scan
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    SeqScan scan = new SeqScan(tid, bf.getId(), "b", new int[]{ 1, 0 });
+    Predicate filter = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2500));
+    assertTrue(IndexNestedLoopJoin.canProbe(new Filter(filter, scan), 1, Predicate.Op.EQUALS));
+    assertFalse(IndexNestedLoopJoin.canProbe(scan, 0, Predicate.Op.EQUALS));
+    assertFalse(IndexNestedLoopJoin.canProbe(scan, 1, Predicate.Op.NOT_EQUALS));
+
+    List<String> expected = rows(new Join(pred, TestUtil.createKeyedTupleList(keys),
+        new Filter(filter, scan)));
+    assertEquals(expected, rows(new IndexNestedLoopJoin(pred, TestUtil.createKeyedTupleList(keys),
+        new Filter(filter, new SeqScan(tid, bf.getId(), "b", new int[]{ 1, 0 })))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static boolean hasIndexJoin(OpIterator op) {
+    if (op instanceof IndexNestedLoopJoin)
+      return true;
+    if (op instanceof Operator)
+      for (OpIterator child : ((Operator) op).getChildren())
+        if (hasIndexJoin(child))
+          return true;
+    return false;
+  }
+
+  /**
+   * A join against an indexed table looks the tuples up in the index, and is
+   * costed that way
+   */
+  @Test public void optimizerUsesIndex() throws Exception {
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 50, 5000, null, null, "c");
+    Database.getCatalog().addTable(hf, "h");
+    TableStats.setTableStats("h", new TableStats(hf.getId(), 1000));
+    TableStats.setTableStats("b", new TableStats(bf.getId(), 1000));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(hf.getId(), "h");
+    lp.addScan(bf.getId(), "b");
+    lp.addJoin("h.c0", "b.c0", Predicate.Op.EQUALS);
+    lp.addProjectField("*", null);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(hasIndexJoin(plan));
+
+    JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+    LogicalJoinNode lj = new LogicalJoinNode("h", "b", "c0", "c0", Predicate.Op.EQUALS);
+    double scanB = TableStats.getTableStats("b").estimateScanCost();
+    double cost = jo.estimateJoinCost(lj, 50, ROWS, 1000, scanB);
+    // less than scanning b for every tuple of h
+    assertTrue(cost < 1000 + 50 * scanB + 50.0 * ROWS);
+
+    List<String> expected = rows(new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, hf.getId(), "h"), new SeqScan(tid, bf.getId(), "b")));
+    assertEquals(expected, rows(plan));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * An equality join of two tables keyed on the join fields is merged, and
+   * costed without index lookups
+   */
+  @Test public void sortedOuterIsMerged() throws Exception {
+    BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 2000, 5000, null, null, 0);
+    BTreeFile bf2 = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "d"));
+    Database.getCatalog().addTable(bf2, "a");
+    TableStats.setTableStats("a", new TableStats(bf2.getId(), 1000));
+    TableStats.setTableStats("b", new TableStats(bf.getId(), 1000));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(bf2.getId(), "a");
+    lp.addScan(bf.getId(), "b");
+    lp.addJoin("a.d0", "b.c0", Predicate.Op.EQUALS);
+    lp.addProjectField("*", null);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertFalse(hasIndexJoin(plan));
+
+    JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "d0", "c0", Predicate.Op.EQUALS);
+    double scanA = TableStats.getTableStats("a").estimateScanCost();
+    double scanB = TableStats.getTableStats("b").estimateScanCost();
+    assertEquals(scanA + 2000 * scanB + 2000.0 * ROWS, jo.estimateJoinCost(lj, 2000, ROWS, scanA, scanB), 1e-6);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
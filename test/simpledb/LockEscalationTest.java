@@ -0,0 +1,136 @@
+package simpledb;
+
+import simpledb.TestUtil.LockGrabber;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionId;
+
+public class LockEscalationTest extends TestUtil.CreateHeapFile {
+  private static final int PAGES = 6;
+  private static final int THRESHOLD = 3;
+  private static final int POLL_INTERVAL = 100;
+
+  private TransactionId tid1, tid2;
+  private BufferPool bp;
+  private LockManager lm;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and populate it with six pages.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504 * PAGES; ++i) {
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(PAGES, empty.numPages());
+    bp.transactionComplete(tid);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    lm = Database.getLockManager();
+    lm.setEscalationThreshold(THRESHOLD);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+  }
+
+  @After public void tearDown() {
+    bp.transactionComplete(tid1);
+    bp.transactionComplete(tid2);
+    lm.setEscalationThreshold(LockManager.DEFAULT_ESCALATION_THRESHOLD);
+  }
+
+  private PageId page(int pgNo) {
+    return new HeapPageId(empty.getId(), pgNo);
+  }
+
+  private LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm) throws Exception {
+    LockGrabber lg = new LockGrabber(tid, pid, perm);
+    lg.start();
+    Thread.sleep(POLL_INTERVAL);
+    return lg;
+  }
+
+  /**
+   * A scan reading more pages than the threshold ends up with one shared
+   * table lock instead of its page locks
+   */
+  @Test public void scanEscalatesToShared() throws Exception {
+    DbFileIterator it = empty.iterator(tid1);
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    assertEquals(504 * PAGES, count);
+
+    assertEquals(LockMode.S, lm.getTableLockMode(tid1, empty.getId()));
+    for (int i = 0; i < PAGES; i++)
+      assertTrue(bp.holdsLock(tid1, page(i)));
+
+    // readers may share the table, writers wait
+    assertTrue(startGrabber(tid2, page(0), Permissions.READ_ONLY).acquired());
+    assertFalse(startGrabber(tid2, page(1), Permissions.READ_WRITE).acquired());
+  }
+
+  /**
+   * A transaction writing more pages than the threshold escalates to an
+   * exclusive table lock
+   */
+  @Test public void writesEscalateToExclusive() throws Exception {
+    for (int i = 0; i <= THRESHOLD; i++)
+      bp.getPage(tid1, page(i), Permissions.READ_WRITE);
+    assertEquals(LockMode.X, lm.getTableLockMode(tid1, empty.getId()));
+    assertTrue(bp.holdsLock(tid1, page(PAGES - 1)));
+
+    assertFalse(startGrabber(tid2, page(PAGES - 1), Permissions.READ_ONLY).acquired());
+  }
+
+  /**
+   * Escalation doesn't wait for other transactions holding conflicting table
+   * locks, the page locks are kept instead
+   */
+  @Test public void escalationDoesNotWait() throws Exception {
+    assertTrue(startGrabber(tid2, page(PAGES - 1), Permissions.READ_WRITE).acquired());
+    for (int i = 0; i <= THRESHOLD; i++)
+      bp.getPage(tid1, page(i), Permissions.READ_ONLY);
+
+    assertEquals(LockMode.IS, lm.getTableLockMode(tid1, empty.getId()));
+    assertTrue(bp.holdsLock(tid1, page(0)));
+    assertFalse(bp.holdsLock(tid1, page(PAGES - 1)));
+  }
+
+  /**
+   * An explicit table lock blocks page locks of other transactions that
+   * conflict with it
+   */
+  @Test public void tableLockBlocksPages() throws Exception {
+    lm.acquireTableLock(tid1, empty.getId(), LockMode.X);
+    assertFalse(startGrabber(tid2, page(0), Permissions.READ_ONLY).acquired());
+    assertTrue(bp.holdsLock(tid1, page(0)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LockEscalationTest.class);
+  }
+}
@@ -0,0 +1,229 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PaxFileTest extends SimpleDbTestBase {
+  private static final int ROWS = 3000;
+  private static final int COLUMNS = 10;
+
+  private File dir;
+  private Type[] types;
+  private HeapFile heap;
+  private PaxFile pax;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    dir = Files.createTempDirectory("pax").toFile();
+    dir.deleteOnExit();
+    File txt = new File(dir, "wide.txt");
+    txt.deleteOnExit();
+    try (FileWriter w = new FileWriter(txt)) {
+      for (int i = 0; i < ROWS; i++) {
+        w.write(String.valueOf(i));
+        for (int j = 1; j < COLUMNS - 1; j++)
+          w.write("," + (i * j % 97));
+        w.write(",name " + i + "\n");
+      }
+    }
+    types = new Type[COLUMNS];
+    String[] names = new String[COLUMNS];
+    for (int j = 0; j < COLUMNS; j++) {
+      types[j] = j == COLUMNS - 1 ? Type.STRING_TYPE : Type.INT_TYPE;
+      names[j] = "c" + j;
+    }
+    TupleDesc td = new TupleDesc(types, names);
+
+    File heapFile = new File(dir, "heap.dat");
+    heapFile.deleteOnExit();
+    HeapFileEncoder.convert(txt, heapFile, BufferPool.getPageSize(), COLUMNS, types, ',');
+    heap = new HeapFile(heapFile, td);
+    Database.getCatalog().addTable(heap, "heap");
+
+    File paxFile = new File(dir, "wide.dat");
+    paxFile.deleteOnExit();
+    HeapFileEncoder.convertPax(txt, paxFile, BufferPool.getPageSize(), COLUMNS, types, ',');
+    pax = new PaxFile(paxFile, td);
+    Database.getCatalog().addTable(pax, "wide");
+  }
+
+  private List<Tuple> scan(DbFileIterator it, TransactionId tid) throws Exception {
+    List<Tuple> tuples = new ArrayList<>();
+    it.open();
+    while (it.hasNext())
+      tuples.add(it.next());
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return tuples;
+  }
+
+  private List<Tuple> scan(DbFile f) throws Exception {
+    TransactionId tid = new TransactionId();
+    return scan(f.iterator(tid), tid);
+  }
+
+  private List<Tuple> scan(DbFile f, int[] columns) throws Exception {
+    TransactionId tid = new TransactionId();
+    return scan(f.iterator(tid, columns), tid);
+  }
+
+  /**
+   * A table encoded as PAX pages and loaded with the pax schema option holds
+   * the same rows, in the same slots, as the heap file of the same text
+   */
+  @Test public void encodeAndLoad() throws Exception {
+    assertEquals(heap.getFile().length(), pax.getFile().length());
+    File schema = new File(dir, "catalog.txt");
+    schema.deleteOnExit();
+    try (FileWriter w = new FileWriter(schema)) {
+      w.write("wide (c0 int, c1 int, c2 int, c3 int, c4 int, c5 int, c6 int, c7 int, c8 int, c9 string) pax\n");
+    }
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("wide"));
+    assertTrue(f instanceof PaxFile);
+
+    List<Tuple> expected = scan(heap);
+    List<Tuple> actual = scan(f);
+    assertEquals(ROWS, actual.size());
+    for (int i = 0; i < ROWS; i++) {
+      assertEquals(expected.get(i).toString(), actual.get(i).toString());
+      assertEquals(expected.get(i).getRecordId().getTupleNumber(), actual.get(i).getRecordId().getTupleNumber());
+    }
+  }
+
+  /**
+   * A projected scan returns only the requested columns, in the requested
+   * order, from both heap and PAX pages
+   */
+  @Test public void projectedScan() throws Exception {
+    int[] columns = { 9, 3 };
+    for (DbFile f : new DbFile[]{ heap, pax }) {
+      List<Tuple> tuples = scan(f, columns);
+      assertEquals(ROWS, tuples.size());
+      for (int i = 0; i < ROWS; i++) {
+        Tuple t = tuples.get(i);
+        assertEquals(2, t.getTupleDesc().numFields());
+        assertEquals("c9", t.getTupleDesc().getFieldName(0));
+        assertEquals(new StringField("name " + i, Type.STRING_LEN), t.getField(0));
+        assertEquals(new IntField(i * 3 % 97), t.getField(1));
+      }
+    }
+  }
+
+  /**
+   * Rows inserted into and deleted from a PaxFile are written back in the
+   * PAX layout, and projected scans see them
+   */
+  @Test public void insertAndDelete() throws Exception {
+    TransactionId tid = new TransactionId();
+    // only rows of the first pages, as dirty pages stay in the buffer pool until commit
+    for (Tuple t : scan(pax)) {
+      int id = ((IntField) t.getField(0)).getValue();
+      if (id < 200 && id % 2 == 0)
+        Database.getBufferPool().deleteTuple(tid, t);
+    }
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(pax.getTupleDesc());
+      for (int j = 0; j < COLUMNS - 1; j++)
+        t.setField(j, new IntField(-i - j));
+      t.setField(COLUMNS - 1, new StringField("new " + i, Type.STRING_LEN));
+      Database.getBufferPool().insertTuple(tid, pax.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    List<Tuple> tuples = scan(pax, new int[]{ 0, 8 });
+    assertEquals(ROWS, tuples.size());
+    int inserted = 0;
+    for (Tuple t : tuples) {
+      int id = ((IntField) t.getField(0)).getValue();
+      if (id <= 0 && ((IntField) t.getField(1)).getValue() == id - 8)
+        inserted++;
+      else
+        assertEquals(new IntField(id * 8 % 97), t.getField(1));
+    }
+    assertEquals(100, inserted);
+  }
+
+  private static SeqScan findScan(OpIterator op) {
+    if (op instanceof SeqScan)
+      return (SeqScan) op;
+    for (OpIterator child : ((Operator) op).getChildren()) {
+      SeqScan scan = findScan(child);
+      if (scan != null)
+        return scan;
+    }
+    return null;
+  }
+
+  /**
+   * A plan scans only the columns its query uses
+   */
+  @Test public void planScansUsedColumns() throws Exception {
+    TableStats.setTableStats("wide", new TableStats(pax.getId(), 1000));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(pax.getId(), "w");
+    lp.addFilter("w.c2", Predicate.Op.LESS_THAN, "10");
+    lp.addProjectField("w.c9", null);
+    TransactionId tid = new TransactionId();
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+    TupleDesc scanned = findScan(plan).getTupleDesc();
+    assertEquals(2, scanned.numFields());
+    assertEquals("w.c2", scanned.getFieldName(0));
+    assertEquals("w.c9", scanned.getFieldName(1));
+
+    int count = 0;
+    plan.open();
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      assertEquals(1, t.getTupleDesc().numFields());
+      count++;
+    }
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    int expected = 0;
+    for (int i = 0; i < ROWS; i++)
+      if (i * 2 % 97 < 10)
+        expected++;
+    assertEquals(expected, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxFileTest.class);
+  }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+  private static final int PAGES = 20;
+
+  private HeapFile hf;
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+    assertEquals(PAGES, hf.numPages());
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  private List<PageId> pages(int from, int to) {
+    List<PageId> pids = new ArrayList<>();
+    for (int i = from; i < to; i++)
+      pids.add(new HeapPageId(hf.getId(), i));
+    return pids;
+  }
+
+  private int scan() throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = hf.iterator(tid);
+    int count = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    return count;
+  }
+
+  /**
+   * Pages read ahead are taken by getPage instead of being read again, and
+   * are only then added to the pool
+   */
+  @Test public void prefetchedPagesAreUsed() throws Exception {
+    bp.prefetch(pages(0, 5)).get();
+    assertEquals(0, bp.getMissCount());
+    TransactionId tid = new TransactionId();
+    for (PageId pid : pages(0, 5))
+      bp.getPage(tid, pid, Permissions.READ_ONLY);
+    bp.transactionComplete(tid);
+    assertEquals(5, bp.getMissCount());
+    assertEquals(5, bp.getReadAheadHitCount());
+  }
+
+  /**
+   * A sequential scan has the pages ahead of it read in the background
+   */
+  @Test public void scanReadsAhead() throws Exception {
+    assertEquals(504 * PAGES, scan());
+    assertEquals(PAGES, bp.getMissCount());
+    assertTrue(bp.getReadAheadHitCount() > 0);
+
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bp.setReadAheadPages(0);
+    assertEquals(504 * PAGES, scan());
+    assertEquals(0, bp.getReadAheadHitCount());
+  }
+
+  /**
+   * A discarded page is read again, even if an older version of it was read
+   * ahead
+   */
+  @Test public void discardDropsReadAhead() throws Exception {
+    bp.prefetch(pages(0, 1)).get();
+    HeapPageId pid = new HeapPageId(hf.getId(), 0);
+    hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+    bp.discardPage(pid);
+
+    TransactionId tid = new TransactionId();
+    HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    bp.transactionComplete(tid);
+    assertEquals(0, bp.getReadAheadHitCount());
+    assertEquals(504, page.getNumEmptySlots());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ReadAheadTest.class);
+  }
+}
@@ -0,0 +1,262 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RowLockingTest extends TestUtil.CreateHeapFile {
+  private PageId p0;
+  private Tuple a, b;
+  private TransactionId tid1, tid2;
+
+  /** Time to wait before checking whether an update is blocked, in ms */
+  private static final int TIMEOUT = 100;
+
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // create a new empty HeapFile and populate its first page.
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 10; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp.transactionComplete(tid);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    List<Tuple> tuples = scan();
+    this.a = tuples.get(0);
+    this.b = tuples.get(1);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+  }
+
+  /** @return the tuples of the table, read by a transaction of its own */
+  private List<Tuple> scan() throws Exception {
+    TransactionId tid = new TransactionId();
+    List<Tuple> res = new ArrayList<>();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      res.add(it.next());
+    it.close();
+    bp.transactionComplete(tid);
+    return res;
+  }
+
+  private boolean contains(List<Tuple> tuples, Tuple t) {
+    for (Tuple x : tuples)
+      if (x.getField(0).equals(t.getField(0)))
+        return true;
+    return false;
+  }
+
+  /**
+   * Deletes t on behalf of tid in another thread.
+   * @return the thread, still running if the delete is blocked
+   */
+  private Thread startDelete(TransactionId tid, Tuple t) throws Exception {
+    Thread thread = new Thread(() -> {
+      try {
+        bp.deleteTuple(tid, t);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    thread.start();
+    thread.join(TIMEOUT);
+    return thread;
+  }
+
+  /**
+   * Scans the table on behalf of tid in another thread.
+   * @return the thread, still running if the scan is blocked
+   */
+  private Thread startScan(TransactionId tid, List<Tuple> tuples) throws Exception {
+    Thread thread = new Thread(() -> {
+      try {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext())
+          tuples.add(it.next());
+        it.close();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    thread.start();
+    thread.join(TIMEOUT);
+    return thread;
+  }
+
+  /**
+   * A reader waits for an uncommitted delete on its page and doesn't see
+   * the row once the delete commits
+   */
+  @Test public void readerWaitsForUncommittedDelete() throws Exception {
+    bp.deleteTuple(tid1, a);
+    List<Tuple> tuples = new ArrayList<>();
+    Thread blocked = startScan(tid2, tuples);
+    assertTrue(blocked.isAlive());
+    assertTrue(tuples.isEmpty());
+
+    bp.transactionComplete(tid1, true);
+    blocked.join(TIMEOUT);
+    assertFalse(blocked.isAlive());
+    assertEquals(9, tuples.size());
+    assertFalse(contains(tuples, a));
+  }
+
+  /**
+   * Two transactions delete different rows of the same page without waiting
+   * for each other
+   */
+  @Test public void deleteDifferentRows() throws Exception {
+    bp.deleteTuple(tid1, a);
+    assertFalse(startDelete(tid2, b).isAlive());
+
+    assertEquals(LockMode.IX, Database.getLockManager().getTableLockMode(tid1, empty.getId()));
+    assertTrue(Database.getLockManager().holdsLock(tid1, a.getRecordId()));
+    assertTrue(Database.getLockManager().holdsLock(tid2, b.getRecordId()));
+    assertFalse(Database.getLockManager().holdsLock(tid2, a.getRecordId()));
+  }
+
+  /**
+   * A transaction deleting a row another one already deleted waits for it
+   */
+  @Test public void deleteSameRowWaits() throws Exception {
+    bp.deleteTuple(tid1, a);
+    Thread blocked = startDelete(tid2, a);
+    assertTrue(blocked.isAlive());
+
+    // the row is back after tid1 aborts, and tid2 deletes it
+    bp.transactionComplete(tid1, false);
+    blocked.join(TIMEOUT);
+    assertFalse(blocked.isAlive());
+    assertTrue(Database.getLockManager().holdsLock(tid2, a.getRecordId()));
+  }
+
+  /**
+   * An abort undoes only its own rows, even when another transaction
+   * committed changes to the same page in between
+   */
+  @Test public void abortKeepsOtherRows() throws Exception {
+    bp.deleteTuple(tid1, a);
+    bp.deleteTuple(tid2, b);
+    bp.transactionComplete(tid2, true);
+    bp.transactionComplete(tid1, false);
+
+    List<Tuple> tuples = scan();
+    assertTrue(contains(tuples, a));
+    assertFalse(contains(tuples, b));
+
+    // tid1's delete never reached the disk, tid2's did
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    tuples = scan();
+    assertEquals(9, tuples.size());
+    assertTrue(contains(tuples, a));
+    assertFalse(contains(tuples, b));
+  }
+
+  /**
+   * A commit writes only its own rows to disk, other transactions' rows on
+   * the page stay uncommitted
+   */
+  @Test public void commitWritesOnlyOwnRows() throws Exception {
+    bp.deleteTuple(tid1, a);
+    bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(100, 2));
+    bp.transactionComplete(tid1, true);
+
+    HeapPage page = (HeapPage) bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    assertEquals(tid2, page.isDirty());
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    List<Tuple> tuples = scan();
+    assertEquals(9, tuples.size());
+    assertFalse(contains(tuples, a));
+    assertFalse(contains(tuples, Utility.getHeapTuple(100, 2)));
+  }
+
+  /**
+   * A checkpoint writes only committed rows of a page two transactions are
+   * changing, so either of them can still abort
+   */
+  @Test public void checkpointWritesOnlyCommittedRows() throws Exception {
+    bp.deleteTuple(tid1, a);
+    bp.deleteTuple(tid2, b);
+    Database.getLogFile().logCheckpoint();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(10, scan().size());
+
+    bp.deleteTuple(tid1, a);
+    bp.deleteTuple(tid2, b);
+    Database.getLogFile().logCheckpoint();
+    // the page stays dirty, so the commit still writes tid1's delete
+    bp.transactionComplete(tid2, false);
+    bp.transactionComplete(tid1, true);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    List<Tuple> tuples = scan();
+    assertEquals(9, tuples.size());
+    assertFalse(contains(tuples, a));
+    assertTrue(contains(tuples, b));
+  }
+
+  /**
+   * An insert doesn't reuse the slot of a row whose delete hasn't committed
+   */
+  @Test public void insertSkipsUncommittedDelete() throws Exception {
+    bp.deleteTuple(tid1, a);
+    Tuple t = Utility.getHeapTuple(100, 2);
+    bp.insertTuple(tid2, empty.getId(), t);
+    assertNotEquals(a.getRecordId(), t.getRecordId());
+
+    bp.transactionComplete(tid1, false);
+    bp.transactionComplete(tid2, true);
+    List<Tuple> tuples = scan();
+    assertEquals(11, tuples.size());
+    assertTrue(contains(tuples, a));
+    assertTrue(contains(tuples, t));
+  }
+
+  /**
+   * LockMode compatibility and upgrades
+   */
+  @Test public void lockModes() {
+    assertTrue(LockMode.IX.isCompatibleWith(LockMode.IX));
+    assertTrue(LockMode.IS.isCompatibleWith(LockMode.SIX));
+    assertFalse(LockMode.IX.isCompatibleWith(LockMode.S));
+    assertFalse(LockMode.SIX.isCompatibleWith(LockMode.SIX));
+    assertEquals(LockMode.SIX, LockMode.S.combine(LockMode.IX));
+    assertEquals(LockMode.X, LockMode.IX.combine(LockMode.X));
+    assertEquals(LockMode.S, LockMode.IS.combine(LockMode.S));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RowLockingTest.class);
+  }
+}
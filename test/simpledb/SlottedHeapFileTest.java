@@ -0,0 +1,252 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.SlottedPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[]{ Type.INT_TYPE, Type.VARSTRING_TYPE }, new String[]{ "id", "name" });
+
+  private HeapPageId pid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    this.pid = new HeapPageId(-1, -1);
+    Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+  }
+
+  private static Tuple tuple(int id, String name) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField(name, Type.STRING_LEN, Type.VARSTRING_TYPE));
+    return t;
+  }
+
+  private static void assertTuple(int id, String name, Tuple t) {
+    assertEquals(new IntField(id), t.getField(0));
+    assertEquals(name, ((StringField) t.getField(1)).getValue());
+    assertEquals(Type.VARSTRING_TYPE, t.getField(1).getType());
+  }
+
+  /**
+   * Records of different lengths, and the empty slot of a deleted one, survive
+   * writing the page and reading it back
+   */
+  @Test public void pageRoundTrip() throws Exception {
+    SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+    Tuple gone = tuple(1, "a somewhat longer name");
+    page.insertTuple(tuple(0, ""));
+    page.insertTuple(gone);
+    page.insertTuple(tuple(2, "bob"));
+    page.deleteTuple(gone);
+
+    SlottedPage read = new SlottedPage(pid, page.getPageData());
+    assertEquals(page.getFreeSpace(), read.getFreeSpace());
+    Iterator<Tuple> it = read.iterator();
+    Tuple t = it.next();
+    assertTuple(0, "", t);
+    assertEquals(0, t.getRecordId().getTupleNumber());
+    t = it.next();
+    assertTuple(2, "bob", t);
+    assertEquals(2, t.getRecordId().getTupleNumber());
+    assertFalse(it.hasNext());
+
+    // the empty slot is used again
+    Tuple again = tuple(3, "carol");
+    read.insertTuple(again);
+    assertEquals(1, again.getRecordId().getTupleNumber());
+  }
+
+  /**
+   * Short strings take only their length, so a page holds many more of them
+   * than a HeapPage, which gives each its maximum length
+   */
+  @Test public void shortStringsFitMore() throws Exception {
+    SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+    int count = 0;
+    while (page.fits(tuple(count, "name " + count)))
+      page.insertTuple(tuple(count, "name " + count++));
+    try {
+      page.insertTuple(tuple(count, "name " + count));
+      fail("page is full");
+    } catch (simpledb.common.DbException e) {
+      // expected
+    }
+    int heapSlots = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+    assertTrue(count + " vs " + heapSlots, count > 4 * heapSlots);
+  }
+
+  private File writeRows(File dir, int rows) throws Exception {
+    File txt = new File(dir, "names.txt");
+    try (FileWriter w = new FileWriter(txt)) {
+      for (int i = 0; i < rows; i++)
+        w.write(i + ",name " + i + "\n");
+    }
+    return txt;
+  }
+
+  private List<Tuple> scan(DbFile f) throws Exception {
+    TransactionId tid = new TransactionId();
+    List<Tuple> tuples = new ArrayList<>();
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      tuples.add(it.next());
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return tuples;
+  }
+
+  /**
+   * A table encoded in slotted pages and added with the slotted schema option
+   * scans back the same rows from fewer pages than a heap file
+   */
+  @Test public void encodeAndLoad() throws Exception {
+    File dir = Files.createTempDirectory("slotted").toFile();
+    dir.deleteOnExit();
+    File txt = writeRows(dir, 1000);
+    txt.deleteOnExit();
+    File slotted = new File(dir, "names.dat");
+    slotted.deleteOnExit();
+    File heap = new File(dir, "heap.dat");
+    heap.deleteOnExit();
+    Type[] types = { Type.INT_TYPE, Type.VARSTRING_TYPE };
+    HeapFileEncoder.convertSlotted(txt, slotted, BufferPool.getPageSize(), 2, types, ',');
+    HeapFileEncoder.convert(txt, heap, BufferPool.getPageSize(), 2, types, ',');
+    assertTrue(slotted.length() * 4 < heap.length());
+
+    File schema = new File(dir, "catalog.txt");
+    schema.deleteOnExit();
+    try (FileWriter w = new FileWriter(schema)) {
+      w.write("names (id int, name varstring) slotted\n");
+    }
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("names"));
+    assertTrue(f instanceof SlottedHeapFile);
+
+    List<Tuple> tuples = scan(f);
+    assertEquals(1000, tuples.size());
+    for (int i = 0; i < tuples.size(); i++)
+      assertTuple(i, "name " + i, tuples.get(i));
+  }
+
+  /**
+   * Inserts and deletes through the buffer pool, and inserts reuse the space
+   * of deleted records instead of growing the file
+   */
+  @Test public void insertAndDelete() throws Exception {
+    File file = File.createTempFile("slotted", ".dat");
+    file.deleteOnExit();
+    SlottedHeapFile f = new SlottedHeapFile(file, TD);
+    Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 2000; i++)
+      Database.getBufferPool().insertTuple(tid, f.getId(), tuple(i, "name " + i));
+    Database.getBufferPool().transactionComplete(tid);
+    int pages = f.numPages();
+    assertTrue(pages > 1);
+
+    tid = new TransactionId();
+    List<Tuple> tuples = scan(f);
+    assertEquals(2000, tuples.size());
+    for (Tuple t : tuples)
+      if (((IntField) t.getField(0)).getValue() % 2 == 0)
+        Database.getBufferPool().deleteTuple(tid, t);
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1000, scan(f).size());
+
+    tid = new TransactionId();
+    for (int i = 0; i < 900; i++)
+      Database.getBufferPool().insertTuple(tid, f.getId(), tuple(-i, "other " + i));
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(pages, f.numPages());
+    assertEquals(1900, scan(f).size());
+  }
+
+  /**
+   * @return a slotted table in the catalog holding the rows 0 until n
+   */
+  private static SlottedHeapFile createTable(String name, int n) throws Exception {
+    File file = File.createTempFile("slotted", ".dat");
+    file.deleteOnExit();
+    SlottedHeapFile f = new SlottedHeapFile(file, TD);
+    Database.getCatalog().addTable(f, name);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < n; i++)
+      Database.getBufferPool().insertTuple(tid, f.getId(), tuple(i, "name " + i));
+    Database.getBufferPool().transactionComplete(tid);
+    return f;
+  }
+
+  /**
+   * The optimizer costs scans of slotted tables, so joins over them can be
+   * planned
+   */
+  @Test public void planJoin() throws Exception {
+    SlottedHeapFile a = createTable("a", 2000);
+    SlottedHeapFile b = createTable("b", 500);
+    TableStats.setTableStats("a", new TableStats(a.getId(), 1000));
+    TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+    assertEquals(a.numPages() * 1000, TableStats.getTableStats("a").estimateScanCost(), 0);
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(a.getId(), "a");
+    lp.addScan(b.getId(), "b");
+    lp.addJoin("a.id", "b.id", Predicate.Op.EQUALS);
+    lp.addProjectField("*", null);
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    plan.open();
+    int count = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      assertEquals(t.getField(0), t.getField(2));
+      count++;
+    }
+    plan.close();
+    assertEquals(500, count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+  }
+}
@@ -85,6 +85,63 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return width 2 tuples (keys[i], i), one for each key, in order
+     */
+    public static List<Tuple> keyedTuples(int... keys) {
+        List<Tuple> tuplist = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            Tuple tup = new Tuple(Utility.getTupleDesc(2));
+            tup.setField(0, getField(keys[i]));
+            tup.setField(1, getField(i));
+            tuplist.add(tup);
+        }
+        return tuplist;
+    }
+
+    /**
+     * @return n keys drawn at random from 0..keys-1, the same ones for the
+     *   same seed
+     */
+    public static int[] randomKeys(int n, int keys, long seed) {
+        Random r = new Random(seed);
+        int[] res = new int[n];
+        for (int i = 0; i < n; i++)
+            res[i] = r.nextInt(keys);
+        return res;
+    }
+
+    /**
+     * @return a OpIterator over {@link #keyedTuples}(keys). This iterator is
+     *   already open.
+     */
+    public static TupleIterator createKeyedTupleList(int... keys) {
+        TupleIterator result = new TupleIterator(Utility.getTupleDesc(2), keyedTuples(keys));
+        result.open();
+        return result;
+    }
+
+    /**
+     * @return a OpIterator over n width 2 tuples (key, i), with keys from
+     *   {@link #randomKeys}. This iterator is already open.
+     */
+    public static TupleIterator createRandomTupleList(int n, int keys, long seed) {
+        return createKeyedTupleList(randomKeys(n, keys, seed));
+    }
+
+    /**
+     * @return the remaining tuples of it as strings, sorted, to compare the
+     *   output of operators that return it in no particular order
+     */
+    public static List<String> sortedRows(OpIterator it)
+        throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<>();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        Collections.sort(rows);
+        return rows;
+    }
+
     /**
      * @return true iff the tuples have the same number of fields and
      *   corresponding fields in the two Tuples are all equal.
@@ -0,0 +1,121 @@
+package simpledb.execution;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  //The rows of a join of the two inputs in memory, computed by nested loops
+  private static List<String> expected(int n1, int keys1, int n2, int keys2) throws Exception {
+    OpIterator in1 = TestUtil.createRandomTupleList(n1, keys1, 1);
+    List<String> rows = new ArrayList<>();
+    while (in1.hasNext()) {
+      Tuple t1 = in1.next();
+      OpIterator in2 = TestUtil.createRandomTupleList(n2, keys2, 2);
+      while (in2.hasNext()) {
+        Tuple t2 = in2.next();
+        if (t1.getField(0).equals(t2.getField(0)))
+          rows.add(t1.toString() + t2.toString());
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * A join whose build side doesn't fit in memory is split into partitions,
+   * returns the same rows as one that does, and leaves no files behind
+   */
+  @Test public void partitionedJoin() throws Exception {
+    int files = SpillFile.liveFiles();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createRandomTupleList(3000, 500, 1),
+        TestUtil.createRandomTupleList(2000, 700, 2), 100);
+    join.open();
+    assertTrue(SpillFile.liveFiles() > files);
+    List<String> rows = TestUtil.sortedRows(join);
+    assertEquals(expected(3000, 500, 2000, 700), rows);
+
+    join.rewind();
+    assertEquals(rows, TestUtil.sortedRows(join));
+    join.close();
+    assertEquals(files, SpillFile.liveFiles());
+  }
+
+  /**
+   * Partitions that are mostly one key can't be split, and are joined a
+   * memory budget at a time
+   */
+  @Test public void skewedJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createRandomTupleList(500, 2, 1),
+        TestUtil.createRandomTupleList(50, 3, 2), 40);
+    join.open();
+    assertEquals(expected(500, 2, 50, 3), TestUtil.sortedRows(join));
+    join.close();
+  }
+
+  /**
+   * A join that fits in memory doesn't write any partitions
+   */
+  @Test public void inMemoryJoin() throws Exception {
+    int files = SpillFile.liveFiles();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createRandomTupleList(300, 50, 1),
+        TestUtil.createRandomTupleList(200, 70, 2));
+    join.open();
+    assertEquals(files, SpillFile.liveFiles());
+    assertEquals(expected(300, 50, 200, 70), TestUtil.sortedRows(join));
+    join.close();
+  }
+
+  /**
+   * Joins on int fields find every tuple of a key, for negative keys and
+   * keys far apart, in the order child1 returned them
+   */
+  @Test public void intKeys() throws Exception {
+    int[] data1 = { -1, 0, Integer.MIN_VALUE, 1, 1024, 2, -1, 3, 0, 4, 1 << 20, 5, -1, 6 };
+    int[] data2 = { -1, 0, 0, 1, 7, 2, Integer.MIN_VALUE, 3 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createTupleList(2, data1),
+        TestUtil.createTupleList(2, data2));
+    join.open();
+    List<String> rows = new ArrayList<>();
+    while (join.hasNext())
+      rows.add(join.next().toString());
+    join.close();
+    assertEquals(List.of(
+        "-1 0 -1 0 ", "-1 3 -1 0 ", "-1 6 -1 0 ",
+        "0 4 0 1 ",
+        Integer.MIN_VALUE + " 1 " + Integer.MIN_VALUE + " 3 "), rows);
+  }
+
+  /**
+   * Joins on string fields, which are hashed as objects, return the same rows
+   */
+  @Test public void stringKeys() throws Exception {
+    Object[] data1 = { "a", 1, "b", 2, "a", 3 };
+    Object[] data2 = { "a", 4, "c", 5 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, TestUtil.createTupleList(2, data1),
+        TestUtil.createTupleList(2, data2));
+    join.open();
+    assertEquals(List.of("a 1 a 4 ", "a 3 a 4 "), TestUtil.sortedRows(join));
+    join.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,72 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Compares the hash tables HashEquiJoin can build on INT_TYPE join fields:
+ * the HashMap of IntFields to lists of tuples used for any type, and
+ * IntJoinTable.
+ * <p>
+ * Each table is filled with the same tuples, then probed with keys of which
+ * about half match. The numbers are the time per probe, including reading the
+ * matching tuples, and the memory each table takes per tuple added, not
+ * counting the tuples themselves.
+ * Run with {@code java -cp bin/src:bin/test:lib/* simpledb.execution.JoinTableBenchmark [rows] [keys] [probes]}.
+ */
+public class JoinTableBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : rows / 4;
+        int probes = args.length > 2 ? Integer.parseInt(args[2]) : 5000000;
+
+        TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.INT_TYPE });
+        Random r = new Random(0);
+        Tuple[] tuples = new Tuple[rows];
+        for (int i = 0; i < rows; i++) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(r.nextInt(keys)));
+            tuples[i].setField(1, new IntField(i));
+        }
+        Field[] probeKeys = new Field[probes];
+        for (int i = 0; i < probes; i++)
+            probeKeys[i] = new IntField(r.nextInt(2 * keys));
+
+        System.out.printf("%-8s %12s %14s%n", "table", "ns/probe", "bytes/row");
+        for (int i = 0; i < 2; i++) {
+            // the first round of each table warms up the JIT
+            report("map", new JoinTable.MapJoinTable(), tuples, probeKeys);
+            report("int", new IntJoinTable(), tuples, probeKeys);
+        }
+    }
+
+    private static void report(String name, JoinTable table, Tuple[] tuples, Field[] probeKeys) {
+        long before = SystemTestUtil.getMemoryFootprint();
+        for (Tuple t : tuples)
+            table.add(t.getField(0), t);
+        long bytes = SystemTestUtil.getMemoryFootprint() - before;
+
+        long matches = 0;
+        long start = System.nanoTime();
+        for (Field key : probeKeys) {
+            Iterator<Tuple> it = table.get(key);
+            if (it == null)
+                continue;
+            while (it.hasNext()) {
+                it.next();
+                matches++;
+            }
+        }
+        long ns = System.nanoTime() - start;
+        System.out.printf("%-8s %12.1f %14.1f   (%d matches)%n", name,
+                (double) ns / probeKeys.length, (double) bytes / tuples.length, matches);
+        table.clear();
+    }
+}
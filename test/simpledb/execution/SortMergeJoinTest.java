@@ -0,0 +1,153 @@
+package simpledb.execution;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil;
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private static List<Tuple> all(OpIterator it) throws Exception {
+    List<Tuple> tuples = new ArrayList<>();
+    while (it.hasNext())
+      tuples.add(it.next());
+    return tuples;
+  }
+
+  private static List<String> rows(List<Tuple> tuples) {
+    List<String> rows = new ArrayList<>();
+    for (Tuple t : tuples)
+      rows.add(t.toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static List<String> hashJoin(OpIterator in1, OpIterator in2) throws Exception {
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), in1, in2);
+    join.open();
+    List<String> rows = TestUtil.sortedRows(join);
+    join.close();
+    return rows;
+  }
+
+  private static void assertSortedOn(List<Tuple> tuples, int field) {
+    for (int i = 1; i < tuples.size(); i++)
+      assertFalse(tuples.get(i).getField(field).compare(Predicate.Op.LESS_THAN,
+          tuples.get(i - 1).getField(field)));
+  }
+
+  /**
+   * Inputs in no order, and larger than the sort memory, are sorted in runs
+   * and merged; keys with many tuples on both sides join every pair
+   */
+  @Test public void unsortedInputs() throws Exception {
+    int files = SpillFile.liveFiles();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin join = new SortMergeJoin(pred, TestUtil.createRandomTupleList(2000, 50, 1),
+        TestUtil.createRandomTupleList(1500, 70, 2), 300);
+    join.open();
+    assertTrue(SpillFile.liveFiles() > files);
+    List<Tuple> tuples = all(join);
+    assertEquals(hashJoin(TestUtil.createRandomTupleList(2000, 50, 1),
+        TestUtil.createRandomTupleList(1500, 70, 2)), rows(tuples));
+    assertSortedOn(tuples, 0);
+
+    join.rewind();
+    assertEquals(rows(tuples), TestUtil.sortedRows(join));
+    join.close();
+    assertEquals(files, SpillFile.liveFiles());
+  }
+
+  /**
+   * Inputs already in order are merged as they come, and a join of those is
+   * in order too
+   */
+  @Test public void sortedInputs() throws Exception {
+    OpIterator in1 = new OrderBy(0, true, TestUtil.createRandomTupleList(500, 40, 3));
+    OpIterator in2 = new OrderBy(0, true, TestUtil.createRandomTupleList(400, 60, 4));
+    assertTrue(SortMergeJoin.isSortedOn(in1, 0));
+    assertFalse(SortMergeJoin.isSortedOn(in1, 1));
+    OpIterator descending = new OrderBy(0, false, TestUtil.createRandomTupleList(10, 4, 5));
+    assertFalse(SortMergeJoin.isSortedOn(descending, 0));
+
+    SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), in1, in2);
+    assertTrue(SortMergeJoin.isSortedOn(join, 0));
+    assertTrue(SortMergeJoin.isSortedOn(join, 2));
+    join.open();
+    List<Tuple> tuples = all(join);
+    join.close();
+    assertEquals(hashJoin(TestUtil.createRandomTupleList(500, 40, 3),
+        TestUtil.createRandomTupleList(400, 60, 4)), rows(tuples));
+    assertSortedOn(tuples, 0);
+  }
+
+  /**
+   * Scans of a BTreeFile come in order of its key field
+   */
+  @Test public void btreeScansAreSorted() throws Exception {
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, null, 1);
+    Database.getCatalog().addTable(bf);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, bf.getId());
+    assertTrue(SortMergeJoin.isSortedOn(scan, 1));
+    assertFalse(SortMergeJoin.isSortedOn(scan, 0));
+    assertTrue(SortMergeJoin.isSortedOn(new SeqScan(tid, bf.getId(), "t", new int[]{ 1 }), 0));
+
+    scan.open();
+    List<Tuple> tuples = all(scan);
+    scan.close();
+    assertEquals(3000, tuples.size());
+    assertSortedOn(tuples, 1);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer merges inputs that are in order of the join fields, and
+   * hashes others
+   */
+  @Test public void optimizerChoosesMerge() throws Exception {
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null, "c");
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 100, 20, null, null, "c");
+    Database.getCatalog().addTable(f1, "t1");
+    Database.getCatalog().addTable(f2, "t2");
+    TransactionId tid = new TransactionId();
+    LogicalJoinNode lj = new LogicalJoinNode("t1", "t2", "c1", "c1", Predicate.Op.EQUALS);
+
+    OpIterator merge = JoinOptimizer.instantiateJoin(lj,
+        new OrderBy(1, true, new SeqScan(tid, f1.getId(), "t1")),
+        new OrderBy(1, true, new SeqScan(tid, f2.getId(), "t2")));
+    assertTrue(merge instanceof SortMergeJoin);
+    OpIterator hash = JoinOptimizer.instantiateJoin(lj,
+        new OrderBy(1, true, new SeqScan(tid, f1.getId(), "t1")),
+        new SeqScan(tid, f2.getId(), "t2"));
+    assertTrue(hash instanceof HashEquiJoin);
+
+    merge.open();
+    hash.open();
+    assertEquals(TestUtil.sortedRows(hash), TestUtil.sortedRows(merge));
+    merge.close();
+    hash.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}